@@ -5,9 +5,5 @@ set -e
 
 javac -d out $(find src -name "*.java")
 
-# Set number of iterations
-for i in {1..250}; do
-    echo "Running generation, i = $i"
-    java -cp out Generator
-    echo "------------------------------------------------"
-done
+# Generate 250 levels in one JVM, staged with one solve worker per core, and export them
+java -Dgenerator.export=true -cp out GenerationPipeline 250
@@ -0,0 +1,136 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import solver.CancellationToken;
+
+/* Generates many levels in one JVM, with several generators running in parallel */
+public class BatchGenerator
+{
+    /* Level i of a batch always gets the same seed, whichever worker generates it */
+    public BatchGenerator(long masterSeed, int workers)
+    {
+        this.masterSeed = masterSeed;
+        this.workers = workers;
+    }
+
+    /* Seed of the level with the given index */
+    public long seed(int index)
+    {
+        return seed(masterSeed, index);
+    }
+
+    /* A SplitMix64 step from the master seed, so neighbouring indices get unrelated seeds */
+    static long seed(long masterSeed, long index)
+    {
+        long z = masterSeed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        /* -1 asks the generator for an unseeded level */
+        return z == -1 ? 0 : z;
+    }
+
+    /*
+     * Generates levels until count of them are scored or the deadline, in epoch milliseconds, has passed.
+     * The batch is the count lowest level indices that yield a level, handed to results in index order as
+     * soon as every lower index is done, from whichever worker finished it, so results must be safe to call
+     * from several threads. At the deadline the levels finished so far are handed on in index order, past the
+     * indices still unfinished. Failed attempts are skipped. Returns the number of levels.
+     */
+    public int run(int count, long deadline, Consumer<Generator> results) throws InterruptedException
+    {
+        CancellationToken cancel = new CancellationToken();
+        AtomicInteger next = new AtomicInteger();
+        LevelCollector levels = new LevelCollector(count, cancel, results);
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++)
+        {
+            pool.execute(() -> work(deadline, levels, cancel, next));
+        }
+        pool.shutdown();
+        try
+        {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException error)
+        {
+            /* Stop the workers at their next solver expansion */
+            cancel.cancel();
+            throw error;
+        }
+        return levels.flush();
+    }
+
+    /* Takes the next level index until the batch is full, cancelled or out of time */
+    private void work(long deadline, LevelCollector levels, CancellationToken cancel, AtomicInteger next)
+    {
+        while (!cancel.isCancelled() && System.currentTimeMillis() < deadline)
+        {
+            int index = next.getAndIncrement();
+            /* Enough lower indices have yielded a level */
+            if (!levels.wanted(index)) return;
+            try
+            {
+                Generator generator = new Generator(seed(index), deadline, cancel);
+                if (generator.getGrid() == null)
+                {
+                    levels.failed(index);
+                    continue;
+                }
+                generator.scoreLevel();
+                levels.finished(index, generator);
+            }
+            catch (RuntimeException error)
+            {
+                error.printStackTrace();
+                levels.failed(index);
+            }
+        }
+    }
+
+    /* Usage: BatchGenerator [count] [workers] [master seed] [deadline in minutes] */
+    public static void main(String[] args) throws InterruptedException
+    {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 250;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long start = System.currentTimeMillis();
+        long masterSeed = args.length > 2 ? Long.parseLong(args[2]) : start;
+        long deadline = args.length > 3 ? start + Long.parseLong(args[3]) * 60000 : Long.MAX_VALUE;
+
+        System.out.println("Master seed: " + masterSeed + " | Workers: " + workers);
+
+        Consumer<Generator> results = BatchGenerator::print;
+
+        BatchGenerator batch = new BatchGenerator(masterSeed, workers);
+        int levels;
+        if (Generator.EXPORT)
+        {
+            /* Results rows, and every level in one Sokoban collection for JSoko */
+            try (LevelSink sink = new LevelSink(Generator.RESULTS_PATH, LEVELS_PATH))
+            {
+                levels = batch.run(count, deadline, results.andThen(sink));
+            }
+        }
+        else levels = batch.run(count, deadline, results);
+        System.out.println("Generated " + levels + " of " + count + " levels in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /* Prints a finished level, from any worker */
+    static void print(Generator generator)
+    {
+        synchronized (System.out)
+        {
+            System.out.println("Duration: " + generator.getTime() + "ms | " + generator.printLevelId());
+            System.out.println(generator.printStats());
+        }
+    }
+
+    static final String LEVELS_PATH = Util.LEVELS_PATH + "JSoko.txt";
+
+    private final long masterSeed;
+    private final int workers;
+}
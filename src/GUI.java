@@ -174,7 +174,8 @@ public class GUI extends JFrame
         
         System.out.println(pathname + " " + seed);
 
-        level.generateLevel(seed);
+        /* The level sets were generated with freely rotated templates */
+        level.generateLevel(seed, false);
         buildLevel();
 
         /* Set index to next level */
@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import solver.CancellationToken;
+
+/*
+ * Generates levels in stages, each on its own pool of workers: layout, solve, then simulate and score.
+ * Bounded queues connect the stages and a stage waits while the queue after it is full, so the cheap
+ * layout stage keeps the solvers busy without piling up layouts. Every attempt gets its own seed from
+ * the master seed, and a level it yields is the first attempt of new Generator(seed). As in BatchGenerator,
+ * the levels are those of the lowest attempt indices that yield one, whichever worker is quicker.
+ */
+public class GenerationPipeline
+{
+    /* Each stage gets the given number of workers, the queues in front of the solve and score stages hold queueCapacity attempts */
+    public GenerationPipeline(long masterSeed, int layoutWorkers, int solveWorkers, int scoreWorkers, int queueCapacity)
+    {
+        this.masterSeed = masterSeed;
+
+        BlockingQueue<Attempt> toSolve = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Attempt> toScore = new ArrayBlockingQueue<>(queueCapacity);
+        stages = Arrays.asList(
+            new Stage("layout", layoutWorkers, null, toSolve, Generator::layout),
+            new Stage("solve", solveWorkers, toSolve, toScore, Generator::solve),
+            new Stage("score", scoreWorkers, toScore, null, generator ->
+            {
+                if (!generator.simulate()) return false;
+                generator.scoreLevel();
+                return true;
+            }));
+    }
+
+    /*
+     * Generates levels until count of them are scored or the deadline, in epoch milliseconds, has passed.
+     * Levels are handed to results in attempt order as soon as every lower attempt is done, from whichever
+     * worker finished it, so results must be safe to call from several threads. At the deadline the levels
+     * finished so far are handed on in attempt order. Returns the number of levels. A pipeline runs once.
+     */
+    public int run(int count, long deadline, Consumer<Generator> results) throws InterruptedException
+    {
+        started = System.nanoTime();
+        LevelCollector levels = new LevelCollector(count, cancel, results);
+        List<Thread> threads = new ArrayList<>();
+        for (Stage stage : stages)
+        {
+            for (int i = 0; i < stage.workers; i++)
+            {
+                Thread thread = new Thread(() -> work(stage, deadline, levels), stage.name + "-" + (i + 1));
+                threads.add(thread);
+                thread.start();
+            }
+        }
+        try
+        {
+            for (Thread thread : threads) thread.join();
+        }
+        catch (InterruptedException error)
+        {
+            /* Stop the workers at their next attempt, or solver expansion */
+            cancel.cancel();
+            throw error;
+        }
+        return levels.flush();
+    }
+
+    /* Stages in order, their counters can be read while the pipeline runs */
+    public List<Stage> getStages() { return stages; }
+
+    /* Takes attempts from the queue in front of the stage, or makes new ones for the first stage, until the batch is full or out of time */
+    private void work(Stage stage, long deadline, LevelCollector levels)
+    {
+        try
+        {
+            while (!cancel.isCancelled() && System.currentTimeMillis() < deadline)
+            {
+                Attempt attempt;
+                if (stage.input == null)
+                {
+                    long index = attempts.getAndIncrement();
+                    /* Enough lower attempts have yielded a level */
+                    if (!levels.wanted(index)) return;
+                    attempt = new Attempt(index, Generator.attempt(BatchGenerator.seed(masterSeed, index), deadline, cancel));
+                }
+                else
+                    attempt = stage.input.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (attempt == null) continue;
+
+                long begin = System.nanoTime();
+                boolean passed = false;
+                try
+                {
+                    passed = stage.work.test(attempt.generator);
+                }
+                catch (RuntimeException error)
+                {
+                    error.printStackTrace();
+                }
+                stage.record(passed, System.nanoTime() - begin);
+                if (!passed)
+                {
+                    levels.failed(attempt.index);
+                    continue;
+                }
+
+                if (stage.output != null)
+                {
+                    /* Backpressure: wait for room in the next queue */
+                    while (!stage.output.offer(attempt, POLL_MILLIS, TimeUnit.MILLISECONDS))
+                    {
+                        if (cancel.isCancelled() || System.currentTimeMillis() >= deadline) return;
+                    }
+                    continue;
+                }
+                levels.finished(attempt.index, attempt.generator);
+            }
+        }
+        catch (InterruptedException error)
+        {
+            cancel.cancel();
+        }
+    }
+
+    /* An attempt on its way through the stages, with its index among the attempts of the run */
+    private static class Attempt
+    {
+        Attempt(long index, Generator generator)
+        {
+            this.index = index;
+            this.generator = generator;
+        }
+
+        final long index;
+        final Generator generator;
+    }
+
+    /* Counters of one stage */
+    public class Stage
+    {
+        Stage(String name, int workers, BlockingQueue<Attempt> input, BlockingQueue<Attempt> output, Predicate<Generator> work)
+        {
+            this.name = name;
+            this.workers = workers;
+            this.input = input;
+            this.output = output;
+            this.work = work;
+        }
+
+        private void record(boolean passed, long nanos)
+        {
+            processed.increment();
+            if (passed) this.passed.increment();
+            busyNanos.add(nanos);
+        }
+
+        public String getName() { return name; }
+
+        public int getWorkers() { return workers; }
+
+        /* Attempts the stage has finished */
+        public long getProcessed() { return processed.sum(); }
+
+        /* Attempts the stage has passed on */
+        public long getPassed() { return passed.sum(); }
+
+        /* Attempts waiting in front of the stage, the first stage makes its own and has no queue */
+        public int getQueueDepth() { return input == null ? 0 : input.size(); }
+
+        /* Attempts finished per second since the pipeline started */
+        public double getThroughput() { return getProcessed() / seconds(); }
+
+        /* Share of the time of the stage's workers spent working rather than waiting on a queue */
+        public double getUtilisation() { return busyNanos.sum() / 1e9 / seconds() / workers; }
+
+        private double seconds() { return Math.max(1, System.nanoTime() - started) / 1e9; }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ROOT, "%s: %d workers | %d done, %d passed | %.1f/s | queue %d | busy %.0f%%",
+                name, workers, getProcessed(), getPassed(), getThroughput(), getQueueDepth(), 100 * getUtilisation());
+        }
+
+        private final String name;
+        private final int workers;
+        private final BlockingQueue<Attempt> input;
+        private final BlockingQueue<Attempt> output;
+        private final Predicate<Generator> work;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder passed = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+    }
+
+    /* Usage: GenerationPipeline [count] [solve workers] [master seed] [deadline in minutes] */
+    public static void main(String[] args) throws InterruptedException
+    {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 250;
+        int solvers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long start = System.currentTimeMillis();
+        long masterSeed = args.length > 2 ? Long.parseLong(args[2]) : start;
+        long deadline = args.length > 3 ? start + Long.parseLong(args[3]) * 60000 : Long.MAX_VALUE;
+
+        System.out.println("Master seed: " + masterSeed + " | Solve workers: " + solvers);
+        GenerationPipeline pipeline = new GenerationPipeline(masterSeed, 1, solvers, 1, 2 * solvers);
+
+        /* Report the stages while the pipeline runs, so the pools can be sized */
+        Thread reporter = new Thread(() ->
+        {
+            try
+            {
+                while (true)
+                {
+                    Thread.sleep(REPORT_MILLIS);
+                    report(pipeline);
+                }
+            }
+            catch (InterruptedException error) {}
+        }, "pipeline-report");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        int levels;
+        if (Generator.EXPORT)
+        {
+            try (LevelSink sink = new LevelSink(Generator.RESULTS_PATH, BatchGenerator.LEVELS_PATH))
+            {
+                levels = pipeline.run(count, deadline, ((Consumer<Generator>) BatchGenerator::print).andThen(sink));
+            }
+        }
+        else levels = pipeline.run(count, deadline, BatchGenerator::print);
+        reporter.interrupt();
+
+        report(pipeline);
+        System.out.println("Generated " + levels + " of " + count + " levels in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static void report(GenerationPipeline pipeline)
+    {
+        synchronized (System.out)
+        {
+            for (Stage stage : pipeline.getStages()) System.out.println(stage);
+        }
+    }
+
+    private static final long POLL_MILLIS = 100;
+    private static final long REPORT_MILLIS = 10000;
+
+    private final long masterSeed;
+    private final List<Stage> stages;
+    private final CancellationToken cancel = new CancellationToken();
+    private final AtomicLong attempts = new AtomicLong();
+    private volatile long started;
+}
@@ -1,72 +1,114 @@
 import java.util.Random;
 import java.util.LinkedList;
 import java.util.Queue;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.Arrays;
+import java.util.Locale;
 
+import solver.Budget;
+import solver.CancellationToken;
 import solver.Direction;
+import solver.Outcome;
+import solver.SolveResult;
+import solver.Solver;
+import solver.SolverStats;
 import solver.SolverMain;
 
 public class Generator 
 {
     /* Use a random seed or run a given seed */
     public Generator(long seed) 
+    {
+        this(seed, Long.MAX_VALUE, new CancellationToken());
+    }
+
+    /* Also give up at the deadline, in epoch milliseconds, or once the token is cancelled */
+    public Generator(long seed, long deadline, CancellationToken cancel) 
+    {
+        this(seed, deadline, cancel, MATCH_TEMPLATE_EDGES, true);
+    }
+
+    /* Choose whether neighbouring templates must line up, false rebuilds seeds from before they had to */
+    public Generator(long seed, boolean matchEdges) 
+    {
+        this(seed, Long.MAX_VALUE, new CancellationToken(), matchEdges, true);
+    }
+
+    private Generator(long seed, long deadline, CancellationToken cancel, boolean matchEdges, boolean generate) 
     {
         this.seed = seed;
+        this.deadline = deadline;
+        this.cancel = cancel;
+        this.matchEdges = matchEdges;
 
         random = (seed == -1 ? new Random() : new Random(this.seed));  
         time = -1;
         grid = null;
+        startTime = System.currentTimeMillis();
 
-        generate();
+        if (generate) generate();
+    }
+
+    /* 
+     * A single attempt that the caller runs stage by stage: layout, solve, simulate, then scoreLevel.
+     * Its first attempt is the same as that of new Generator(seed), so a level it yields can be rebuilt from the seed.
+     */
+    static Generator attempt(long seed, long deadline, CancellationToken cancel) 
+    {
+        return new Generator(seed, deadline, cancel, MATCH_TEMPLATE_EDGES, false);
     }
   
-    /* Returns the grid */
+    /* Generates the grid, which is left null if no layout was solved in time */
     private void generate() 
     {
-        long startTime = System.currentTimeMillis();
+        boolean solved;
         do 
         {
-            createGrid();
+            solved = layout() && solve() && simulate();
         } 
-        /* 20 seconds time limit */
-        while (!isSolvable() && (System.currentTimeMillis() - startTime) < TIMELIMIT); 
+        while (!solved && System.currentTimeMillis() < endTime() && !cancel.isCancelled()); 
         
-        if (grid == null) 
-        {
-            System.out.println("FAILED TO GENERATE GRID");
-            System.exit(0);
-        }
-        else this.time = (int) (System.currentTimeMillis() - startTime);
+        if (!solved) grid = null;
+    }
+
+    /* Time limit of this generation, or the deadline if that comes first */
+    private long endTime()
+    {
+        return Math.min(startTime + TIMELIMIT, deadline);
     }
 
-    /* Generate a random grid */
-    private void createGrid() 
+    /* Generate a random grid, false if no layout was assembled */
+    private boolean createGrid() 
     {
         rows = (random.nextInt(MIN_DIV, MAX_DIV + 1) * DIV_SIZE);
         cols = (random.nextInt(MIN_DIV, MAX_DIV + 1) * DIV_SIZE);
         grid = new int[rows][cols];
 
         for (int[] row : grid) Arrays.fill(row, 1);
-        placeTemplates();
+        return placeTemplates();
     }
 
-    /* Places a template in each division of the grid */
-    private void placeTemplates() 
+    /* 
+     * Places a template in each division of the grid. With matchEdges a LayoutAssembler chooses them all first,
+     * so that neighbouring templates connect, otherwise each is an independent random choice.
+     */
+    private boolean placeTemplates() 
     {
-        for (int x = 0; x < (rows / DIV_SIZE); x++) 
+        int divRows = rows / DIV_SIZE;
+        int divCols = cols / DIV_SIZE;
+
+        int[] layout = null;
+        if (matchEdges)
+        {
+            layout = new LayoutAssembler(TEMPLATES, divRows, divCols).assemble(random);
+            if (layout == null) return false;
+        }
+
+        for (int x = 0; x < divRows; x++) 
         {
-            for (int y = 0; y < (cols / DIV_SIZE); y++) 
+            for (int y = 0; y < divCols; y++) 
             {
-                int[][] template = TEMPLATES[random.nextInt(TEMPLATES.length)];
-                
-                int rotations = random.nextInt(4);
-                for (int r = 0; r < rotations; r++)
-                {
-                    template = rotateTemplate(template);
-                } 
+                int[][] template = (layout != null ? TEMPLATES.get(layout[x * divCols + y]) : TEMPLATES.rotated(random));
+
                 /* Start a tile sooner to centre the 5x5 template in the 3x3 division */
                 int startRow = (x == 0 ? -1 : (x * DIV_SIZE));
                 int startCol = (y == 0 ? -1 : (y * DIV_SIZE));
@@ -74,23 +116,7 @@ public class Generator
                 placeTemplate(template, startRow, startCol);
             }
         }
-    }
-
-    /* Array manipulation to rotate a template 90 degrees clockwise */
-    private int[][] rotateTemplate(int[][] template) 
-    {
-        int n = template.length;
-        int m = template[0].length;
-
-        int[][] rotated = new int[m][n];
-        for (int i = 0; i < n; i++) 
-         {
-            for (int j = 0; j < m; j++) 
-            {
-                rotated[j][n - 1 - i] = template[i][j];
-            }
-        }
-        return rotated;
+        return true;
     }
 
     /* Place template on the grid */
@@ -157,57 +183,55 @@ public class Generator
     /* Check if the given coordinates are within the grid */
     private boolean isInBounds(int x, int y, int row, int col) { return x >= 0 && x < row && y >= 0 && y < col; }
 
-    /* Check if grid is fully connected, place entites, check solvability*/
-    private boolean isSolvable() 
+    /* Layout stage: a new grid of templates, checked to be fully connected, bordered, with entities placed */
+    boolean layout() 
     {
-        /* Start again if BFS fails */
-        if (!bfs()) return false;
+        /* Start again if no layout was assembled or BFS fails */
+        if (!createGrid() || !bfs()) return false;
         borderGrid();
 
         /* Place entities on grid */
-        EntityGenerator entityGen;
         entities = (random.nextInt(MIN_ENTITIES, MAX_ENTITIES + 1));
         entityGen = new EntityGenerator(grid, entities, random);
         grid = entityGen.getGrid();
 
         /* Restart on invalid grids */
-        if (grid == null) return false; 
+        return grid != null; 
+    }
 
-        /* Write grid to file, run solver */
-        String pathname = Util.writeToFile(seed, grid);
+    /* Solve stage: check solvability of the layout, moving the keeper if it is stuck */
+    boolean solve() 
+    {
+        /* Run solver on the grid */
         try 
         {
             /* Solve instance */
-            path = SolverMain.solvePuzzle(pathname);
-            while (path == null) 
+            SolveResult result = SolverMain.solve(grid, solveBudget(), cancel);
+            while (result.outcome == Outcome.PROVEN_UNSOLVABLE) 
             {
                 /* Attempt to re-place keeper if no solution */
                 if (!entityGen.replaceKeeper()) return false; /* No solution, if can't place keeper */
                 grid = entityGen.getGrid(); /* Get new grid */
-                pathname = Util.writeToFile(seed, grid);
-                path = SolverMain.solvePuzzle(pathname); /* Resolve instance */
+                result = SolverMain.solve(grid, solveBudget(), cancel); /* Resolve instance */
             }
+            /* Too slow to solve, move on to the next layout */
+            if (!result.isSolved()) return false;
+            solveEngine = Solver.Engine.BEST_FIRST;
 
-            /* Simulate moves */
-            Simulator sim = new Simulator(new Level(grid, getPlayer(), entities), path, entityGen.getPairs());
-
-            String sokobanContent = Util.convertToSokobanFormat(grid);
-            try (java.io.PrintWriter out = new java.io.PrintWriter("levels/JSoko.txt")) 
+            /* Score the fewest pushes solution, not whichever one the search found first. The layout is
+               already accepted, so a push optimal solve that does not finish keeps the best first one */
+            if (PUSH_OPTIMAL_METRICS) 
             {
-                out.print(sokobanContent);
-            } 
-            catch (java.io.IOException e) 
-            {
-                e.printStackTrace();
+                SolveResult optimal = SolverMain.solve(grid, Solver.Engine.PUSH_OPTIMAL, METRICS_BUDGET, cancel);
+                if (optimal.isSolved()) 
+                {
+                    result = optimal;
+                    solveEngine = Solver.Engine.PUSH_OPTIMAL;
+                }
             }
-
-            /* Get metrics */
-            moves = sim.getTotalMoves();
-            pushes = sim.getTotalPushes();
-            directionalPushes = sim.getTotalDirectionalPushes();
-            reversePushes = sim.getTotalReversePushes();
-            boxChanges = sim.getTotalBoxChanges() - 1;
-            cornerGoals = entityGen.getCornerGoals();
+            /* Stats of the solve whose solution is scored, so a row never mixes two searches */
+            path = result.path;
+            solveStats = result.stats;
 
             return true;
         } 
@@ -223,7 +247,40 @@ public class Generator
             return false;
         }
     }
+
+    /* Simulate stage: play the solution to get the metrics of the level */
+    boolean simulate() 
+    {
+        try 
+        {
+            /* Simulate moves */
+            Simulator sim = new Simulator(new Level(grid, getPlayer(), entities), path, entityGen.getPairs());
+
+            /* Get metrics */
+            moves = sim.getTotalMoves();
+            pushes = sim.getTotalPushes();
+            directionalPushes = sim.getTotalDirectionalPushes();
+            reversePushes = sim.getTotalReversePushes();
+            boxChanges = sim.getTotalBoxChanges() - 1;
+            cornerGoals = entityGen.getCornerGoals();
+        } 
+        catch (RuntimeException error) 
+        {
+            error.printStackTrace();
+            return false;
+        }
+
+        this.time = (int) (System.currentTimeMillis() - startTime);
+        return true;
+    }
     
+    /* Budget for one solve, bounded by the time left for the whole generation */
+    private Budget solveBudget()
+    {
+        long left = endTime() - System.currentTimeMillis();
+        return new Budget(Math.max(0, Math.min(SOLVE_TIMELIMIT, left)), Long.MAX_VALUE, SOLVE_MAX_STATES);
+    }
+
     /* Border the grid with walls */
     private void borderGrid() 
     {
@@ -261,14 +318,17 @@ public class Generator
         }
     }
 
-    /* Score level */
-    private void scoreLevel() 
+    /* Score level, in memory, see printResultsCSV and LevelSink to keep the results */
+    public void scoreLevel() 
     {
+        /* Nothing to score if generation failed */
+        if (grid == null) return;
+
         /* Calculate fEmp and fDiv */
         TwoArch2 twoArch = new TwoArch2(grid);
 
-        int fEmp = twoArch.getfEmp();
-        double fDiv = twoArch.getfDiv();
+        fEmp = twoArch.getfEmp();
+        fDiv = twoArch.getfDiv();
 
         /* Calculate teritary metrics */
         double box_grid_ratio = Math.sqrt((rows-2) * (cols-2));
@@ -289,8 +349,6 @@ public class Generator
         double B = metrics[6];                 /* Boxes */
         double R;                              /* Random */
         
-        if (M == -1) System.exit(0);
-        
         /* Score normalisation */ 
         C = (C - 1) / (P - 1);                 /* Box Changes as % of the total pushes */
         D = (D - 1) / (P - 1);                 /* Directional Pushes as % of the total pushes */
@@ -298,7 +356,7 @@ public class Generator
         P = (P - 1) / (M - 1);                 /* Pushes as % of the total moves */
         G = (G - 0) / (B - 0);                 /* Corner Goals as % of the total goals */
         B = (B / box_grid_ratio);              /* Boxes as % of the total grid, borderless */
-        R = (0.05 * Math.random());            /* Random float between 0.00 and 0.05 */
+        R = (0.05 * random.nextDouble());      /* Random float between 0.00 and 0.05, from the seed */
         
 
         /* Calculate bounds of score */
@@ -309,33 +367,6 @@ public class Generator
         /* Calculate composite rating */
         rating = (a * M) + (b * P) + (c * D) + (d * I) + (e * C) - (f * G) - (g * B) + (R);
         rating = (rating - minRating) / (maxRating - minRating);
-
-
-        String resultsFile = "results/9x9_6B/composite_new.csv";
-        java.io.File file = new java.io.File(resultsFile);
-        if (!file.exists() || file.length() == 0) 
-        {
-            try (BufferedWriter headerWriter = new BufferedWriter(new FileWriter(file, true))) 
-            {
-                headerWriter.write("moves,pushes,dir_pushes,rev_pushes,box_changes,corner_goals,fDiv,fEmp,rating,seed");
-                headerWriter.newLine();
-            } 
-            catch (IOException ex) 
-            {
-                ex.printStackTrace();
-            }
-        }
-
-        try (BufferedWriter r = new BufferedWriter(new FileWriter(resultsFile, true))) 
-        {
-            r.write(printStatsCSV() + ","+ fDiv + "," + fEmp + "," + printLevelIdCSV() + "\n");
-        } 
-        catch (IOException e) 
-        {
-            e.printStackTrace();
-        }
-
-        Util.clearAll();
     }
 
     /* Print stats for CSV */
@@ -350,12 +381,33 @@ public class Generator
                metrics[5];
     }
     
+    /* Print a row of the results file, see RESULTS_CSV_HEADER */
+    public String printResultsCSV() 
+    { 
+        return printStatsCSV() + "," + fDiv + "," + fEmp + "," + printLevelIdCSV() + "," + printSolverStatsCSV();
+    }
+
     /* Print level ID for CSV */
     public String printLevelIdCSV() 
     { 
         return rating + "," + seed;
     }
 
+    /* Print the cost of the solve that found the scored solution for CSV */
+    public String printSolverStatsCSV() 
+    { 
+        return solveEngine + "," +
+               solveStats.getExpanded() + "," +
+               solveStats.getGenerated() + "," +
+               solveStats.getDeadlockPruned() + "," +
+               solveStats.getDuplicates() + "," +
+               solveStats.getPeakOpen() + "," +
+               solveStats.getPeakHistory() + "," +
+               solveStats.getBytes() + "," +
+               String.format(Locale.ROOT, "%.1f,%.1f,%.1f,%.1f", solveStats.getReachMillis(), solveStats.getGenerateMillis(),
+                       solveStats.getPathMillis(), solveStats.getTotalMillis());
+    }
+
     /* Print stats */
     public String printStats() 
     { 
@@ -420,25 +472,49 @@ public class Generator
     public int[][] getGrid() { return this.grid; }
 
     public long getSeed() { return this.seed; }
+
+    public int getTime() { return this.time; }
     
-    public static void main(String[] args) 
+    public static void main(String[] args) throws InterruptedException 
     {
         long seed = System.currentTimeMillis();
         Generator generator = new Generator(seed);
+        if (generator.getGrid() == null) 
+        {
+            System.out.println("FAILED TO GENERATE GRID");
+            return;
+        }
 
         System.out.println("Duration: " + generator.time + "ms");
         System.out.println("Seed: " + generator.getSeed());
         generator.printGrid();
         generator.scoreLevel();
+
+        if (EXPORT) 
+        {
+            try (LevelSink sink = new LevelSink(RESULTS_PATH, null)) 
+            {
+                sink.accept(generator);
+            }
+        }
     }
 
+    // Results Constants
+    public static final String RESULTS_PATH = "results/9x9_6B/composite_stats.csv"; /* composite_new.csv has the columns from before the solver stats */
+    public static final String RESULTS_CSV_HEADER = 
+        "moves,pushes,dir_pushes,rev_pushes,box_changes,corner_goals,fDiv,fEmp,rating,seed," +
+        "engine,expanded,generated,deadlock_pruned,duplicates,peak_open,peak_history,bytes," +
+        "reach_ms,generate_ms,path_ms,solve_ms";
+
     // Division Constants
     private static final int MIN_DIV = 3;
     private static final int MAX_DIV = MIN_DIV; /* Set equal for testing conditions */
     
     // Template Constants
-    private static final int[][][] TEMPLATES = Templates.TEMPLATES;
+    private static final TemplateLibrary TEMPLATES = new TemplateLibrary(Templates.TEMPLATES); /* Compiled once, shared by all generators */
     private static final int DIV_SIZE = 3;
+    static final boolean MATCH_TEMPLATE_EDGES = true; /* Assemble layouts so neighbouring templates connect, the level sets were generated without */
+    private final boolean matchEdges;
     
     // Entity Constants
     private static final int MIN_ENTITIES = 6;
@@ -446,6 +522,15 @@ public class Generator
 
     // Generation Constants 
     private static final int TIMELIMIT = 600000; /* 10 minutes in milliseconds */
+    private static final int SOLVE_TIMELIMIT = 20000; /* Per layout, slower layouts are rejected */
+    private static final long SOLVE_MAX_STATES = 20000000; /* Per layout, about what fits into a 4 GB heap */
+    private static final boolean PUSH_OPTIMAL_METRICS = true; /* Metrics from a push optimal solution, reproducible but slower */
+    private static final long METRICS_MAX_EXPANDED = 1000000; /* Per push optimal solve, a state count so the outcome does not depend on the machine */
+    private static final Budget METRICS_BUDGET = new Budget(Long.MAX_VALUE, METRICS_MAX_EXPANDED, SOLVE_MAX_STATES);
+    static final boolean EXPORT = Boolean.getBoolean("generator.export"); /* Run with -Dgenerator.export=true for main methods to write scored levels through a LevelSink, generation never writes files */
+    private final long deadline;
+    private final CancellationToken cancel;
+    private long startTime;
     private int time = -1; 
     
     // Search Constants
@@ -462,9 +547,12 @@ public class Generator
 
     // Entity Attributes
     private int entities;
+    private EntityGenerator entityGen;
 
     // Solver Attributes
     private Iterable<Direction> path = null;
+    private SolverStats solveStats = null;
+    private Solver.Engine solveEngine = null;
 
     private int moves = -1;
     private int pushes = -1;
@@ -473,6 +561,8 @@ public class Generator
     private int boxChanges = -1;
     private int cornerGoals = -1;
     private double rating = -1;
+    private double fDiv = -1;
+    private int fEmp = -1;
 
     private static final double a = 0.0005;
     private static final double b = 0.35;
@@ -0,0 +1,341 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+
+/*
+ * Assembles a layout of templates the way wave function collapse does. Every division starts out able to take
+ * any variant of the library, the undecided division with the fewest variants left is collapsed to one of them
+ * at random by weight, and the choice is propagated. A seam between two divisions stays open while some pair of
+ * their variants connects across it, the open seams must keep all divisions connected, and a seam they all
+ * depend on, a bridge, must connect, which narrows the variants on both sides of it. A contradiction undoes the
+ * last choice and rules that variant out. Every division only takes variants whose floor holds together, so the
+ * finished layout is connected through its seams, the connectivity check of the grid stays as a safeguard.
+ * Not thread safe, every generator makes its own.
+ */
+public class LayoutAssembler
+{
+    public LayoutAssembler(TemplateLibrary library, int divRows, int divCols)
+    {
+        this.library = library;
+        divisions = divRows * divCols;
+        words = (library.size() + Long.SIZE - 1) / Long.SIZE;
+
+        /* 
+         * Seams to the right and below every division. Only the first division is centred, so it meets the second
+         * by their rings, and the last row and column of divisions lose their last line of cells to the border.
+         */
+        int count = divRows * (divCols - 1) + (divRows - 1) * divCols;
+        first = new int[count];
+        second = new int[count];
+        side = new int[count];
+        shared = new boolean[count];
+        cut = new boolean[count];
+        int[] seamCount = new int[divisions];
+        int seam = 0;
+        for (int row = 0; row < divRows; row++)
+        {
+            for (int col = 0; col < divCols; col++)
+            {
+                int division = row * divCols + col;
+                if (col + 1 < divCols)
+                    addSeam(seam++, division, division + 1, TemplateLibrary.RIGHT, col == 0, row > 0 && row == divRows - 1, seamCount);
+                if (row + 1 < divRows)
+                    addSeam(seam++, division, division + divCols, TemplateLibrary.BOTTOM, row == 0, col > 0 && col == divCols - 1, seamCount);
+            }
+        }
+        seams = new int[divisions][];
+        for (int division = 0; division < divisions; division++) seams[division] = new int[seamCount[division]];
+        Arrays.fill(seamCount, 0);
+        for (seam = 0; seam < count; seam++)
+        {
+            seams[first[seam]][seamCount[first[seam]]++] = seam;
+            seams[second[seam]][seamCount[second[seam]]++] = seam;
+        }
+
+        open = new boolean[count];
+        stale = new boolean[count];
+        narrowed = new boolean[count];
+        bridge = new boolean[count];
+        order = new int[divisions];
+        low = new int[divisions];
+        support = new long[words];
+
+        /* A division only takes variants whose own floor holds together in the grid, the seams then connect the rest */
+        initial = new long[divisions * words];
+        for (int row = 0; row < divRows; row++)
+        {
+            for (int col = 0; col < divCols; col++)
+            {
+                boolean cutRow = row > 0 && row == divRows - 1;
+                boolean cutCol = col > 0 && col == divCols - 1;
+                for (int variant = 0; variant < library.size(); variant++)
+                {
+                    if (library.isWhole(variant, cutRow, cutCol)) set(initial, row * divCols + col, variant);
+                }
+            }
+        }
+    }
+
+    /* Variant of every division, row by row, or null if no layout was found within MAX_BACKTRACKS */
+    public int[] assemble(Random random)
+    {
+        long[] domains = initial.clone();
+
+        Deque<Choice> choices = new ArrayDeque<>();
+        int backtracks = 0;
+        Arrays.fill(stale, true);
+        Arrays.fill(narrowed, false);
+        boolean consistent = propagate(domains);
+        while (true)
+        {
+            if (!consistent)
+            {
+                /* Undo the last choice and rule it out */
+                if (choices.isEmpty() || ++backtracks > MAX_BACKTRACKS) return null;
+                Choice last = choices.pop();
+                domains = last.domains;
+                domains[last.division * words + last.variant / Long.SIZE] &= ~(1L << last.variant);
+                Arrays.fill(stale, true);
+                Arrays.fill(narrowed, false);
+                consistent = count(domains, last.division) > 0 && propagate(domains);
+                continue;
+            }
+
+            int division = undecided(domains);
+            if (division < 0) break;
+
+            int variant = draw(random, domains, division);
+            choices.push(new Choice(domains.clone(), division, variant));
+            Arrays.fill(domains, division * words, (division + 1) * words, 0);
+            set(domains, division, variant);
+            changed(division);
+            consistent = propagate(domains);
+        }
+
+        int[] layout = new int[divisions];
+        for (int division = 0; division < divisions; division++)
+        {
+            for (int i = 0; i < words; i++)
+            {
+                long bits = domains[division * words + i];
+                if (bits != 0) layout[division] = i * Long.SIZE + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return layout;
+    }
+
+    /* Narrows the domains until every bridge connects, false on a contradiction. Only seams by changed domains are looked at again */
+    private boolean propagate(long[] domains)
+    {
+        while (true)
+        {
+            for (int seam = 0; seam < open.length; seam++)
+            {
+                if (!stale[seam]) continue;
+                open[seam] = supported(domains, seam, first[seam], second[seam], side[seam]);
+                stale[seam] = false;
+            }
+            if (!findBridges()) return false;
+
+            boolean changed = false;
+            for (int seam = 0; seam < open.length; seam++)
+            {
+                if (!bridge[seam] || narrowed[seam]) continue;
+                narrowed[seam] = true;
+                if (narrow(domains, seam, first[seam], second[seam], side[seam]))
+                {
+                    if (count(domains, second[seam]) == 0) return false;
+                    changed(second[seam]);
+                    changed = true;
+                }
+                if (narrow(domains, seam, second[seam], first[seam], TemplateLibrary.opposite(side[seam])))
+                {
+                    if (count(domains, first[seam]) == 0) return false;
+                    changed(first[seam]);
+                    changed = true;
+                }
+            }
+            if (!changed) return true;
+        }
+    }
+
+    /* The seams of a division whose domain changed have to be looked at again */
+    private void changed(int division)
+    {
+        for (int seam : seams[division])
+        {
+            stale[seam] = true;
+            narrowed[seam] = false;
+        }
+    }
+
+    /* Collects in support the variants of to that connect to some variant of from on the given side of it */
+    private boolean supported(long[] domains, int seam, int from, int to, int direction)
+    {
+        Arrays.fill(support, 0);
+        for (int i = 0; i < words; i++)
+        {
+            for (long bits = domains[from * words + i]; bits != 0; bits &= bits - 1)
+            {
+                long[] neighbours = library.getNeighbours(i * Long.SIZE + Long.numberOfTrailingZeros(bits), direction, shared[seam], cut[seam]);
+                for (int j = 0; j < words; j++) support[j] |= neighbours[j];
+            }
+        }
+        boolean any = false;
+        for (int j = 0; j < words; j++)
+        {
+            support[j] &= domains[to * words + j];
+            any |= support[j] != 0;
+        }
+        return any;
+    }
+
+    /* Keeps only the variants of to that connect across the seam, returns whether any were dropped */
+    private boolean narrow(long[] domains, int seam, int from, int to, int direction)
+    {
+        supported(domains, seam, from, to, direction);
+        boolean changed = false;
+        for (int j = 0; j < words; j++)
+        {
+            changed |= support[j] != domains[to * words + j];
+            domains[to * words + j] = support[j];
+        }
+        return changed;
+    }
+
+    /* Marks the bridges among the open seams, false if they do not connect all divisions */
+    private boolean findBridges()
+    {
+        Arrays.fill(order, -1);
+        Arrays.fill(bridge, false);
+        visited = 0;
+        visit(0, -1);
+        return visited == divisions;
+    }
+
+    /* Depth first search of Tarjan's bridge finding: a seam is a bridge if nothing below it reaches back above it */
+    private void visit(int division, int parentSeam)
+    {
+        order[division] = low[division] = visited++;
+        for (int seam : seams[division])
+        {
+            if (!open[seam] || seam == parentSeam) continue;
+            int next = first[seam] == division ? second[seam] : first[seam];
+            if (order[next] < 0)
+            {
+                visit(next, seam);
+                low[division] = Math.min(low[division], low[next]);
+                if (low[next] > order[division]) bridge[seam] = true;
+            }
+            else low[division] = Math.min(low[division], order[next]);
+        }
+    }
+
+    /* The undecided division with the fewest variants left, -1 once all are decided */
+    private int undecided(long[] domains)
+    {
+        int best = -1;
+        int fewest = Integer.MAX_VALUE;
+        for (int division = 0; division < divisions; division++)
+        {
+            int left = count(domains, division);
+            if (left > 1 && left < fewest)
+            {
+                best = division;
+                fewest = left;
+            }
+        }
+        return best;
+    }
+
+    /* A variant left in the division at random, by the weights of the library */
+    private int draw(Random random, long[] domains, int division)
+    {
+        double total = 0;
+        for (int i = 0; i < words; i++)
+        {
+            for (long bits = domains[division * words + i]; bits != 0; bits &= bits - 1)
+            {
+                total += library.getWeight(i * Long.SIZE + Long.numberOfTrailingZeros(bits));
+            }
+        }
+
+        double r = random.nextDouble() * total;
+        int last = -1;
+        for (int i = 0; i < words; i++)
+        {
+            for (long bits = domains[division * words + i]; bits != 0; bits &= bits - 1)
+            {
+                last = i * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                r -= library.getWeight(last);
+                if (r < 0) return last;
+            }
+        }
+        /* Rounding at the very end of the range */
+        return last;
+    }
+
+    private int count(long[] domains, int division)
+    {
+        int count = 0;
+        for (int i = 0; i < words; i++) count += Long.bitCount(domains[division * words + i]);
+        return count;
+    }
+
+    private void set(long[] domains, int division, int variant)
+    {
+        domains[division * words + variant / Long.SIZE] |= 1L << variant;
+    }
+
+    private void addSeam(int seam, int a, int b, int direction, boolean ringsMeet, boolean border, int[] seamCount)
+    {
+        first[seam] = a;
+        second[seam] = b;
+        side[seam] = direction;
+        shared[seam] = ringsMeet;
+        cut[seam] = border;
+        seamCount[a]++;
+        seamCount[b]++;
+    }
+
+    /* A collapsed division, with the domains from before so it can be undone */
+    private static class Choice
+    {
+        Choice(long[] domains, int division, int variant)
+        {
+            this.domains = domains;
+            this.division = division;
+            this.variant = variant;
+        }
+
+        final long[] domains;
+        final int division;
+        final int variant;
+    }
+
+    private static final int MAX_BACKTRACKS = 64;
+
+    private final TemplateLibrary library;
+    private final int divisions;
+    private final int words;
+    private final long[] initial;
+
+    // Seams between neighbouring divisions: second lies on side of first
+    private final int[] first;
+    private final int[] second;
+    private final int[] side;
+    private final boolean[] shared;
+    private final boolean[] cut;
+    private final int[][] seams;
+
+    // Scratch of propagation
+    private final boolean[] open;
+    private final boolean[] stale;
+    private final boolean[] narrowed;
+    private final boolean[] bridge;
+    private final int[] order;
+    private final int[] low;
+    private final long[] support;
+    private int visited;
+}
@@ -22,7 +22,13 @@ public class Level
     /* Generate a level or reconstruct a level given a seed */
     public void generateLevel(long seed)
     {
-        Generator generator = new Generator(seed);
+        generateLevel(seed, Generator.MATCH_TEMPLATE_EDGES);
+    }
+
+    /* Generate a level or reconstruct a level given a seed, with or without matching template edges */
+    public void generateLevel(long seed, boolean matchEdges)
+    {
+        Generator generator = new Generator(seed, matchEdges);
 
         grid = generator.getGrid();
         if (grid == null) return;
@@ -0,0 +1,95 @@
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import solver.CancellationToken;
+
+/*
+ * Keeps the levels of a batch by the index of their attempt rather than by when they finish. Workers report
+ * every attempt they take, finished or failed, and levels are handed on in index order once every attempt
+ * before them is known, so the batch is the lowest count finished indices whichever worker was quicker.
+ * Cancels the batch once it is full. Safe to call from several workers.
+ */
+class LevelCollector
+{
+    LevelCollector(int count, CancellationToken cancel, Consumer<Generator> results)
+    {
+        this.count = count;
+        this.cancel = cancel;
+        this.results = results;
+    }
+
+    /* Whether the attempt can still make the batch, false once count levels with lower indices have finished */
+    synchronized boolean wanted(long index)
+    {
+        int lower = delivered;
+        for (long level : levels)
+        {
+            if (level >= index || lower >= count) break;
+            lower++;
+        }
+        return lower < count;
+    }
+
+    /* The attempt yielded a scored level */
+    synchronized void finished(long index, Generator level)
+    {
+        resolved.put(index, level);
+        levels.add(index);
+        advance();
+    }
+
+    /* The attempt yielded no level */
+    synchronized void failed(long index)
+    {
+        resolved.put(index, null);
+        advance();
+    }
+
+    /* Hands on the levels still waiting on an unfinished attempt, when the deadline leaves it unfinished. Returns the number of levels */
+    synchronized int flush()
+    {
+        while (!levels.isEmpty() && delivered < count) deliver(resolved.remove(levels.pollFirst()));
+        resolved.clear();
+        return delivered;
+    }
+
+    /* Hands on the levels whose lower attempts are all known */
+    private void advance()
+    {
+        while (resolved.containsKey(next) && delivered < count)
+        {
+            Generator level = resolved.remove(next);
+            if (level != null)
+            {
+                levels.remove(next);
+                deliver(level);
+            }
+            next++;
+        }
+    }
+
+    private void deliver(Generator level)
+    {
+        delivered++;
+        if (delivered == count) cancel.cancel();
+        try
+        {
+            results.accept(level);
+        }
+        catch (RuntimeException error)
+        {
+            error.printStackTrace();
+        }
+    }
+
+    private final int count;
+    private final CancellationToken cancel;
+    private final Consumer<Generator> results;
+
+    // Attempts known past the first unknown one, null for a failed attempt, and which of them finished
+    private final TreeMap<Long, Generator> resolved = new TreeMap<>();
+    private final TreeSet<Long> levels = new TreeSet<>();
+    private long next = 0; /* Lowest attempt not yet known */
+    private int delivered = 0;
+}
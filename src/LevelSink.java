@@ -0,0 +1,150 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/* Writes scored levels to files on a background thread, in batches, so generators never wait on the disk */
+public class LevelSink implements Consumer<Generator>, AutoCloseable
+{
+    /* Appends a results row for every level, and the level itself to a Sokoban collection unless levelsFile is null */
+    public LevelSink(String resultsFile, String levelsFile)
+    {
+        checkHeader(resultsFile);
+        this.resultsFile = resultsFile;
+        this.levelsFile = levelsFile;
+
+        writer = new Thread(this::write, "level-sink");
+        writer.start();
+    }
+
+    /* Formats the level on the calling thread and queues it, safe to call from several generators */
+    @Override
+    public void accept(Generator generator)
+    {
+        if (closed) throw new IllegalStateException("LevelSink is closed");
+
+        String level = levelsFile == null ? null :
+            "; " + generator.getSeed() + "\n" + Util.convertToSokobanFormat(generator.getGrid()) + "\n";
+        queue.add(new String[]{generator.printResultsCSV(), level});
+    }
+
+    /* Writes the levels still queued and stops the writer. If interrupted while waiting, the writer finishes on its own */
+    @Override
+    public void close()
+    {
+        if (closed) return;
+        closed = true;
+        queue.add(END);
+        try
+        {
+            writer.join();
+        }
+        catch (InterruptedException error)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Waits for a level, collects what else arrives within FLUSH_MILLIS and writes it all at once */
+    private void write()
+    {
+        List<String[]> batch = new ArrayList<>();
+        boolean end = false;
+        while (!end)
+        {
+            try
+            {
+                batch.add(queue.take());
+                long flush = System.currentTimeMillis() + FLUSH_MILLIS;
+                while (batch.size() < BATCH_SIZE && batch.get(batch.size() - 1) != END)
+                {
+                    String[] next = queue.poll(Math.max(0, flush - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            }
+            catch (InterruptedException error)
+            {
+                /* Write what has been collected and stop */
+                end = true;
+            }
+            queue.drainTo(batch);
+            end |= batch.remove(END);
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    /* Refuses a results file written with other columns, its rows would not line up with the header */
+    private static void checkHeader(String resultsFile)
+    {
+        File results = new File(resultsFile);
+        if (!results.exists() || results.length() == 0) return;
+        try (BufferedReader in = new BufferedReader(new FileReader(results)))
+        {
+            String header = in.readLine();
+            if (!Generator.RESULTS_CSV_HEADER.equals(header))
+                throw new IllegalArgumentException(resultsFile + " has other columns than " + Generator.RESULTS_CSV_HEADER + ", write to a new file");
+        }
+        catch (IOException e)
+        {
+            throw new IllegalArgumentException("Cannot read the header of " + resultsFile, e);
+        }
+    }
+
+    /* Appends the batch, each file is opened once */
+    private void flush(List<String[]> batch)
+    {
+        if (batch.isEmpty()) return;
+
+        File results = new File(resultsFile);
+        boolean header = !results.exists() || results.length() == 0;
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(results, true)))
+        {
+            if (header)
+            {
+                out.write(Generator.RESULTS_CSV_HEADER);
+                out.newLine();
+            }
+            for (String[] level : batch)
+            {
+                out.write(level[0]);
+                out.newLine();
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+
+        if (levelsFile == null) return;
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(levelsFile, true)))
+        {
+            for (String[] level : batch)
+            {
+                out.write(level[1]);
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private static final String[] END = new String[0]; /* Queued by close, compared by identity */
+    private static final int BATCH_SIZE = 64;
+    private static final long FLUSH_MILLIS = 1000;
+
+    private final String resultsFile;
+    private final String levelsFile;
+    private final LinkedBlockingQueue<String[]> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed = false;
+}
@@ -0,0 +1,249 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * The templates compiled once into every distinct rotation and reflection, indexed by their edges. Each side of a
+ * variant has openings, the floor cells on that edge of its 3x3 centre, and exits, the floor cells of its outer ring
+ * beyond them. A ring only ever adds floor, so two neighbours are connected if their facing openings share a cell,
+ * and where the two meet only by their rings, if that cell is also an exit of either one.
+ */
+public class TemplateLibrary
+{
+    public TemplateLibrary(int[][][] templates)
+    {
+        /* Quarter turns of every entry, for the free choice */
+        rotations = new int[templates.length][4][][];
+        for (int t = 0; t < templates.length; t++)
+        {
+            rotations[t][0] = templates[t];
+            for (int r = 1; r < 4; r++) rotations[t][r] = rotate(rotations[t][r - 1]);
+        }
+
+        /* Distinct variants, every entry keeps the weight its duplicates give it and shares it equally among its variants */
+        List<int[][]> variants = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (int t = 0; t < templates.length; t++)
+        {
+            List<int[][]> own = new ArrayList<>();
+            int[][] mirrored = mirror(templates[t]);
+            for (int r = 0; r < 4; r++)
+            {
+                addDistinct(own, rotations[t][r]);
+                addDistinct(own, mirrored);
+                mirrored = rotate(mirrored);
+            }
+            for (int[][] variant : own)
+            {
+                int index = indexOf(variants, variant);
+                if (index < 0)
+                {
+                    index = variants.size();
+                    variants.add(variant);
+                    weights.add(0.0);
+                }
+                weights.set(index, weights.get(index) + 1.0 / own.size());
+            }
+        }
+        int count = variants.size();
+        this.variants = variants.toArray(new int[0][][]);
+        this.weights = new double[count];
+        for (int v = 0; v < count; v++) this.weights[v] = weights.get(v);
+
+        openings = new int[count][4];
+        exits = new int[count][4];
+        for (int v = 0; v < count; v++)
+        {
+            int[][] variant = this.variants[v];
+            for (int i = 0; i < 3; i++)
+            {
+                if (variant[1][1 + i] == Tile.FLOOR) openings[v][TOP] |= 1 << i;
+                if (variant[1 + i][3] == Tile.FLOOR) openings[v][RIGHT] |= 1 << i;
+                if (variant[3][1 + i] == Tile.FLOOR) openings[v][BOTTOM] |= 1 << i;
+                if (variant[1 + i][1] == Tile.FLOOR) openings[v][LEFT] |= 1 << i;
+
+                if (variant[0][1 + i] == Tile.FLOOR) exits[v][TOP] |= 1 << i;
+                if (variant[1 + i][4] == Tile.FLOOR) exits[v][RIGHT] |= 1 << i;
+                if (variant[4][1 + i] == Tile.FLOOR) exits[v][BOTTOM] |= 1 << i;
+                if (variant[1 + i][0] == Tile.FLOOR) exits[v][LEFT] |= 1 << i;
+            }
+        }
+
+        /* Whether the floor of the centre holds together, also once the border cuts off its last row, column or both */
+        whole = new boolean[2][2][count];
+        for (int v = 0; v < count; v++)
+        {
+            for (int cutRow = 0; cutRow < 2; cutRow++)
+            {
+                for (int cutCol = 0; cutCol < 2; cutCol++) whole[cutRow][cutCol][v] = centreConnected(this.variants[v], 3 - cutRow, 3 - cutCol);
+            }
+        }
+
+        /* 
+         * For every variant and side, the variants that connect on that side of it: touching or meeting by their
+         * rings, and with the last cell of the edge in the grid or cut off by its border
+         */
+        int words = (count + Long.SIZE - 1) / Long.SIZE;
+        neighbours = new long[2][2][4][count][words];
+        for (int shared = 0; shared < 2; shared++)
+        {
+            for (int cut = 0; cut < 2; cut++)
+            {
+                for (int side = 0; side < 4; side++)
+                {
+                    for (int v = 0; v < count; v++)
+                    {
+                        for (int w = 0; w < count; w++)
+                        {
+                            if (connects(v, side, w, opposite(side), shared == 1, cut == 1)) set(neighbours[shared][cut][side][v], w);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /* An entry at random turned a random number of quarter turns, the same draws from random as the generator always made */
+    public int[][] rotated(Random random)
+    {
+        return rotations[random.nextInt(rotations.length)][random.nextInt(4)];
+    }
+
+    /* The variant as a 5x5 template, must not be modified */
+    public int[][] get(int variant) { return variants[variant]; }
+
+    /* Floor cells on one edge of the centre of the variant, bit i for the i-th cell from the top or left */
+    public int getOpenings(int variant, int side) { return openings[variant][side]; }
+
+    /* Floor cells of the outer ring beyond that edge */
+    public int getExits(int variant, int side) { return exits[variant][side]; }
+
+    /* Sampling weight of the variant, the entries of its template share theirs among its variants */
+    public double getWeight(int variant) { return weights[variant]; }
+
+    /* 
+     * Bitset of the variants that connect on the given side of the variant, must not be modified. shared if the
+     * two meet by their rings, cut if the last cell of their edge lies beyond the border of the grid.
+     */
+    public long[] getNeighbours(int variant, int side, boolean shared, boolean cut)
+    {
+        return neighbours[shared ? 1 : 0][cut ? 1 : 0][side][variant];
+    }
+
+    /* Whether the floor of the centre of the variant is connected, with its last row or column beyond the border */
+    public boolean isWhole(int variant, boolean cutRow, boolean cutCol) { return whole[cutRow ? 1 : 0][cutCol ? 1 : 0][variant]; }
+
+    public int size() { return variants.length; }
+
+    public static int opposite(int side) { return (side + 2) % 4; }
+
+    /* Whether second, on the given side of first, shares an open cell with it across their edge */
+    private boolean connects(int first, int side, int second, int facing, boolean shared, boolean cut)
+    {
+        int cells = openings[first][side] & openings[second][facing];
+        if (cut) cells &= ~(1 << 2);
+        /* Meeting by their rings, the row or column between them is floor only at exits */
+        if (shared) cells &= exits[first][side] | exits[second][facing];
+        return cells != 0;
+    }
+
+    /* Flood of the floor of the centre over the given number of its rows and columns, only the ring can add to it */
+    private static boolean centreConnected(int[][] variant, int centreRows, int centreCols)
+    {
+        boolean[][] reached = new boolean[centreRows][centreCols];
+        int floor = 0, start = -1;
+        for (int i = 0; i < centreRows; i++)
+        {
+            for (int j = 0; j < centreCols; j++)
+            {
+                if (variant[1 + i][1 + j] != Tile.FLOOR) continue;
+                floor++;
+                if (start < 0) start = i * centreCols + j;
+            }
+        }
+        if (floor == 0) return false;
+
+        int[] stack = new int[floor];
+        int size = 0, count = 0;
+        stack[size++] = start;
+        reached[start / centreCols][start % centreCols] = true;
+        while (size > 0)
+        {
+            int cell = stack[--size];
+            count++;
+            int i = cell / centreCols, j = cell % centreCols;
+            int[][] steps = {{i - 1, j}, {i + 1, j}, {i, j - 1}, {i, j + 1}};
+            for (int[] step : steps)
+            {
+                int a = step[0], b = step[1];
+                if (a < 0 || a >= centreRows || b < 0 || b >= centreCols || reached[a][b]) continue;
+                if (variant[1 + a][1 + b] != Tile.FLOOR) continue;
+                reached[a][b] = true;
+                stack[size++] = a * centreCols + b;
+            }
+        }
+        return count == floor;
+    }
+
+    private static void set(long[] bits, int index) { bits[index / Long.SIZE] |= 1L << index; }
+
+    /* Array manipulation to rotate a template 90 degrees clockwise */
+    private static int[][] rotate(int[][] template)
+    {
+        int n = template.length;
+        int m = template[0].length;
+
+        int[][] rotated = new int[m][n];
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < m; j++)
+            {
+                rotated[j][n - 1 - i] = template[i][j];
+            }
+        }
+        return rotated;
+    }
+
+    /* Reflect a template left to right */
+    private static int[][] mirror(int[][] template)
+    {
+        int[][] mirrored = new int[template.length][];
+        for (int i = 0; i < template.length; i++)
+        {
+            mirrored[i] = new int[template[i].length];
+            for (int j = 0; j < template[i].length; j++)
+            {
+                mirrored[i][template[i].length - 1 - j] = template[i][j];
+            }
+        }
+        return mirrored;
+    }
+
+    private static void addDistinct(List<int[][]> variants, int[][] variant)
+    {
+        if (indexOf(variants, variant) < 0) variants.add(variant);
+    }
+
+    private static int indexOf(List<int[][]> variants, int[][] variant)
+    {
+        for (int i = 0; i < variants.size(); i++)
+        {
+            if (Arrays.deepEquals(variants.get(i), variant)) return i;
+        }
+        return -1;
+    }
+
+    public static final int TOP = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int LEFT = 3;
+
+    private final int[][][][] rotations;
+    private final int[][][] variants;
+    private final double[] weights;
+    private final boolean[][][] whole;
+    private final int[][] openings;
+    private final int[][] exits;
+    private final long[][][][][] neighbours;
+}
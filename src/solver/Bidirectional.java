@@ -0,0 +1,163 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * Bidirectional best first search. The reverse half pulls boxes off the goals like
+ * {@link Search#findBoxPath}, starting from every start position at once, and the forward half
+ * pushes them from the start of the level. Both halves use {@link Search#expand} for successors.
+ *
+ * Both maps are built from the same level, so they have the same cells and the same Zobrist keys,
+ * and a state key (box hash and normalized player cell) means the same configuration on either
+ * side. Every state is stored under its key with its index, so a new state meets the other half
+ * with a single table lookup. The search stops at the first meet, the solution is the forward
+ * moves up to the meeting configuration followed by the reverse moves played backwards.
+ */
+public final class Bidirectional {
+
+    private Bidirectional(SolverContext context)
+    {
+        this.context = context;
+    }
+
+    /**
+     *
+     * @param state Start state of the reverse search, with the player where it is in the level
+     * @param starts Start positions of the player for the reverse search
+     * @return The moves in the form Solver.solve returns them, or null if the halves never meet
+     */
+    public static ArrayList<Direction> solve(SolverContext context, State state, ArrayList<Position> starts)
+    {
+        return new Bidirectional(context).search(state, starts);
+    }
+
+    private ArrayList<Direction> search(State state, ArrayList<Position> starts)
+    {
+        if (state.lowerBound == LowerBound.INFEASIBLE) {
+            return null;
+        }
+        Map map = Map.reverted(state.map);
+        Half forward = new Half(context.forwardHistory);
+        Half reverse = new Half(context.history);
+
+        /* The forward search starts with the boxes where the reverse search has to bring them */
+        State start = new State(context, map, state.map.getGoals().clone(), state.player);
+        if (start.lowerBound == LowerBound.INFEASIBLE) {
+            return null;
+        }
+        forward.add(start, key(start));
+        for (Position position : starts) {
+            State root = new State(state, state.map.index(position.x, position.y));
+            long key = key(root);
+            State meet = reverse.meet(forward, root, key);
+            if (meet != null) {
+                return stitch(meet, root);
+            }
+            reverse.add(root, key);
+        }
+
+        ArrayList<State> children = new ArrayList<State>();
+        while (!forward.open.isEmpty() && !reverse.open.isEmpty() && !context.shouldStop()) {
+            /* Grow the smaller frontier */
+            Half half = forward.open.size() <= reverse.open.size() ? forward : reverse;
+            Half other = half == forward ? reverse : forward;
+            children.clear();
+            Search.expand(context, half.open.remove(), children);
+            for (State child : children) {
+                long key = key(child);
+                State meet = half.meet(other, child, key);
+                if (meet != null) {
+                    return half == forward ? stitch(child, meet) : stitch(meet, child);
+                }
+                half.add(child, key);
+            }
+            context.stats().open(forward.open.size() + reverse.open.size());
+        }
+        return null;
+    }
+
+    private long key(State state)
+    {
+        return Search.key(context, state);
+    }
+
+    /**
+     * Joins the two halves. Solver.solve returns moves in the direction of the reverse search,
+     * last move first, so the forward moves are turned around and the reverse moves are reversed.
+     */
+    private ArrayList<Direction> stitch(State forward, State reverse)
+    {
+        ArrayList<Direction> path = new ArrayList<Direction>();
+        for (Direction move : Search.getPlayerPath(context, forward)) {
+            path.add(move.opposite());
+        }
+        /* Walk from where the push left the player to where the pull left it, both in the same region */
+        Map map = forward.map;
+        Search.Result walk = Search.bfs(context, forward, new IsAtPosition(map.cellX(reverse.player),
+                map.cellY(reverse.player)), map.cellX(forward.player), map.cellY(forward.player));
+        Collections.reverse(walk.path);
+        for (Direction move : walk.path) {
+            path.add(move.opposite());
+        }
+        ArrayList<Direction> back = Search.getPlayerPath(context, reverse);
+        Collections.reverse(back);
+        path.addAll(back);
+        return path;
+    }
+
+    /**
+     * One direction of the search, its open list and every state it has generated
+     */
+    private final class Half {
+
+        Half(TranspositionTable seen)
+        {
+            this.seen = seen;
+        }
+
+        /**
+         * Adds the state unless an equal one has been seen on this side
+         */
+        void add(State state, long key)
+        {
+            if (seen.get(key) == TranspositionTable.NOT_FOUND) {
+                seen.put(key, states.size());
+                context.limits().retained();
+                states.add(state);
+                open.add(state);
+            }
+            else {
+                context.stats().duplicate();
+            }
+        }
+
+        /**
+         * Looks the key up on the other side. Keys are hashes, so a hit is confirmed on the boxes
+         * and on the player of the other state being in the region of this one.
+         * @return The state of the other side with the same configuration, or null
+         */
+        State meet(Half other, State state, long key)
+        {
+            int index = other.seen.get(key);
+            if (index == TranspositionTable.NOT_FOUND) {
+                return null;
+            }
+            State candidate = other.states.get(index);
+            if (!Arrays.equals(candidate.boxes, state.boxes)) {
+                return null;
+            }
+            long[] region = context.regionScratch(state.boxes.length);
+            Search.flood(context, state, region);
+            return State.isSet(region, candidate.player) ? candidate : null;
+        }
+
+        final PriorityQueue<State> open = new PriorityQueue<State>();
+        final ArrayList<State> states = new ArrayList<State>();
+        final TranspositionTable seen;
+    }
+
+    private final SolverContext context;
+}
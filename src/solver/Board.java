@@ -0,0 +1,230 @@
+package solver;
+
+import java.util.List;
+
+/**
+ * A level as the solver needs it: walls, goals and boxes as bitsets over the cells, numbered row by
+ * row like in Map, and the cell of the player. Built straight from the generator's grid or from the
+ * lines of a level file, so a solve does not have to go through a file or through strings.
+ */
+public final class Board {
+
+    private Board(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        int words = Map.words(width * height);
+        walls = new long[words];
+        goals = new long[words];
+        boxes = new long[words];
+    }
+
+    /**
+     *
+     * @param grid Rows of tile codes as used by the generator, FLOOR to PLAYER_ON_GOAL, anything else is a wall
+     */
+    public static Board fromGrid(int[][] grid)
+    {
+        int width = 0;
+        for (int[] row : grid) {
+            width = Math.max(width, row.length);
+        }
+        Board board = new Board(width, grid.length);
+        for (int y = 0; y < grid.length; y++) {
+            for (int x = 0; x < grid[y].length; x++) {
+                board.place(x, y, grid[y][x]);
+            }
+        }
+        return board;
+    }
+
+    /**
+     *
+     * @param lines Rows of a level in the usual text format, # $ . * @ + and space.
+     *              Shorter rows are padded with floor.
+     */
+    public static Board fromLines(List<String> lines)
+    {
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, line.length());
+        }
+        Board board = new Board(width, lines.size());
+        for (int y = 0; y < lines.size(); y++) {
+            String line = lines.get(y);
+            for (int x = 0; x < line.length(); x++) {
+                board.place(x, y, tile(line.charAt(x)));
+            }
+        }
+        return board;
+    }
+
+    /**
+     *
+     * @return The board of the reverse game, boxes and goals swapped
+     */
+    public Board inverted()
+    {
+        Board board = new Board(width, height);
+        board.walls = walls;
+        board.goals = boxes;
+        board.boxes = goals;
+        board.player = player;
+        return board;
+    }
+
+    private static int tile(char c)
+    {
+        switch (c) {
+        case '#':
+            return WALL;
+        case '@':
+            return PLAYER;
+        case '$':
+            return BOX;
+        case '.':
+            return GOAL;
+        case '*':
+            return BOX_ON_GOAL;
+        case '+':
+            return PLAYER_ON_GOAL;
+        default:
+            return FLOOR;
+        }
+    }
+
+    /**
+     * A grid with several players keeps the first in reading order, the one the solver took when it read levels from files
+     */
+    private void place(int x, int y, int tile)
+    {
+        int cell = y * width + x;
+        switch (tile) {
+        case FLOOR:
+            break;
+        case PLAYER:
+            if (player < 0) {
+                player = cell;
+            }
+            break;
+        case BOX:
+            State.set(boxes, cell);
+            break;
+        case GOAL:
+            State.set(goals, cell);
+            break;
+        case BOX_ON_GOAL:
+            State.set(boxes, cell);
+            State.set(goals, cell);
+            break;
+        case PLAYER_ON_GOAL:
+            if (player < 0) {
+                player = cell;
+            }
+            State.set(goals, cell);
+            break;
+        default:
+            State.set(walls, cell);
+        }
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public boolean isWall(int cell)
+    {
+        return State.isSet(walls, cell);
+    }
+
+    public boolean isGoal(int cell)
+    {
+        return State.isSet(goals, cell);
+    }
+
+    public boolean isBox(int cell)
+    {
+        return State.isSet(boxes, cell);
+    }
+
+    /**
+     *
+     * @return Bitset of the box cells, must not be modified
+     */
+    long[] boxes()
+    {
+        return boxes;
+    }
+
+    /**
+     *
+     * @return Bitset of the goal cells, must not be modified
+     */
+    long[] goals()
+    {
+        return goals;
+    }
+
+    /**
+     *
+     * @return Cell of the player, -1 if there is none
+     */
+    public int getPlayer()
+    {
+        return player;
+    }
+
+    /**
+     *
+     * @return The level in the text format
+     */
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder();
+        for (int y = 0; y < height; y++) {
+            if (y > 0) {
+                out.append(System.getProperty("line.separator"));
+            }
+            for (int x = 0; x < width; x++) {
+                int cell = y * width + x;
+                boolean goal = isGoal(cell);
+                if (isWall(cell)) {
+                    out.append('#');
+                }
+                else if (isBox(cell)) {
+                    out.append(goal ? '*' : '$');
+                }
+                else if (cell == player) {
+                    out.append(goal ? '+' : '@');
+                }
+                else {
+                    out.append(goal ? '.' : ' ');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    // Tile codes of the generator's grid
+    public static final int FLOOR = 0;
+    public static final int WALL = 1;
+    public static final int PLAYER = 2;
+    public static final int BOX = 3;
+    public static final int GOAL = 4;
+    public static final int BOX_ON_GOAL = 5;
+    public static final int PLAYER_ON_GOAL = 6;
+
+    private final int width;
+    private final int height;
+    // Bitsets are shared between a board and its inverted board, neither changes them after construction
+    private long[] walls;
+    private long[] goals;
+    private long[] boxes;
+    private int player = -1;
+}
@@ -0,0 +1,18 @@
+package solver;
+
+/**
+ * A search engine that keeps resources between the start positions of a solve, see Solver.solve
+ */
+interface BoxSearch extends AutoCloseable {
+
+    /**
+     * Searches from the state with the player on the start position
+     * @return The final state, or null if there is no solution from this start position
+     */
+    State findBoxPath(State state, int playerStartX, int playerStartY);
+
+    /**
+     * Frees what the engine holds, it must not be used afterwards
+     */
+    void close();
+}
@@ -0,0 +1,43 @@
+package solver;
+
+/**
+ * Limits on a single solve. A solve that runs into any of them stops at its next expansion
+ * with the outcome BUDGET_EXHAUSTED. Use Long.MAX_VALUE for no limit.
+ */
+public final class Budget {
+
+    public static final Budget UNLIMITED = new Budget(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    /**
+     *
+     * @param maxMillis Wall clock time for the whole solve
+     * @param maxExpanded Number of states expanded, summed over all threads of the solve
+     * @param maxRetained Number of states kept for duplicate detection, a proxy for memory. The IDA*
+     *                    engine keeps none, its memory is bounded by its table instead
+     */
+    public Budget(long maxMillis, long maxExpanded, long maxRetained)
+    {
+        this.maxMillis = maxMillis;
+        this.maxExpanded = maxExpanded;
+        this.maxRetained = maxRetained;
+    }
+
+    public long getMaxMillis()
+    {
+        return maxMillis;
+    }
+
+    public long getMaxExpanded()
+    {
+        return maxExpanded;
+    }
+
+    public long getMaxRetained()
+    {
+        return maxRetained;
+    }
+
+    private final long maxMillis;
+    private final long maxExpanded;
+    private final long maxRetained;
+}
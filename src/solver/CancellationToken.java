@@ -0,0 +1,20 @@
+package solver;
+
+/**
+ * Lets another thread stop a solve. The search checks the token at every expansion,
+ * so it stops soon after cancel with the outcome CANCELLED.
+ */
+public final class CancellationToken {
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    private volatile boolean cancelled;
+}
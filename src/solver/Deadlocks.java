@@ -0,0 +1,212 @@
+package solver;
+
+/**
+ * Deadlock patterns that depend on the other boxes, checked after every box move.
+ * The dead squares of the map already cover a lone box, these cover boxes that block
+ * each other, and for pulls a player shut in with nothing left to pull. The checks only
+ * read the map and the box bitset and use scratch space from the context, so they do
+ * not allocate.
+ *
+ * The map orientation decides what a move needs: pushing a box from c onto c+d needs
+ * the player on c-d, pulling it needs the player on c+d and room for the player on c+2d.
+ */
+final class Deadlocks {
+
+    private Deadlocks() {}
+
+    /**
+     *
+     * @param boxes Box bitset after the move
+     * @param box Cell of the box that was moved
+     * @param player Cell of the player after the move
+     * @return True if the box configuration can no longer be solved
+     */
+    static boolean isDeadlock(SolverContext context, Map map, long[] boxes, int box, int player)
+    {
+        long[] assumed = context.deadlockScratch(boxes.length);
+        if (frozen(map, boxes, assumed, box) == FROZEN_OFF_GOAL) {
+            return true;
+        }
+        if (map.isPulling()) {
+            return trapped(context, map, boxes, player);
+        }
+        return closedDiagonal(map, boxes, box, player);
+    }
+
+    /**
+     * Freeze check. A box is frozen when it can not move along either axis, where boxes it is
+     * checked against are frozen themselves given that this box is treated as a wall. Frozen boxes
+     * on goals are fine, a frozen box off its goal is a deadlock.
+     * @return MOVABLE, FROZEN_ON_GOALS or FROZEN_OFF_GOAL
+     */
+    private static int frozen(Map map, long[] boxes, long[] assumed, int cell)
+    {
+        State.set(assumed, cell);
+        int result = MOVABLE;
+        int horizontal = blocked(map, boxes, assumed, cell, 1);
+        if (horizontal != MOVABLE) {
+            int vertical = blocked(map, boxes, assumed, cell, map.getWidth());
+            if (vertical != MOVABLE) {
+                boolean offGoal = horizontal == FROZEN_OFF_GOAL || vertical == FROZEN_OFF_GOAL
+                        || !map.isGoal(cell);
+                result = offGoal ? FROZEN_OFF_GOAL : FROZEN_ON_GOALS;
+            }
+        }
+        State.clear(assumed, cell);
+        return result;
+    }
+
+    /**
+     * @return MOVABLE if the box can move to either side along the axis, otherwise whether
+     *         any box that had to be frozen for that is off its goal
+     */
+    private static int blocked(Map map, long[] boxes, long[] assumed, int cell, int step)
+    {
+        boolean offGoal = false;
+        for (int side = -step; side <= step; side += 2 * step) {
+            int to = cell + side;
+            int playerCell = map.isPulling() ? cell + 2 * side : cell - side;
+            /* Moving onto a dead square is as good as not moving */
+            if (!map.isFloor(to) || map.isDead(to)) {
+                continue;
+            }
+            int toObstacle = obstacle(map, boxes, assumed, to);
+            if (toObstacle != MOVABLE) {
+                offGoal |= toObstacle == FROZEN_OFF_GOAL;
+                continue;
+            }
+            int playerObstacle = obstacle(map, boxes, assumed, playerCell);
+            if (playerObstacle != MOVABLE) {
+                offGoal |= playerObstacle == FROZEN_OFF_GOAL;
+                continue;
+            }
+            return MOVABLE;
+        }
+        return offGoal ? FROZEN_OFF_GOAL : FROZEN_ON_GOALS;
+    }
+
+    /**
+     * @return MOVABLE if nothing permanent is on the cell, FROZEN_ON_GOALS for walls and boxes
+     *         already assumed frozen, otherwise the freeze result of the box on it
+     */
+    private static int obstacle(Map map, long[] boxes, long[] assumed, int cell)
+    {
+        if (!map.isFloor(cell) || State.isSet(assumed, cell)) {
+            return FROZEN_ON_GOALS;
+        }
+        if (!State.isSet(boxes, cell)) {
+            return MOVABLE;
+        }
+        return frozen(map, boxes, assumed, cell);
+    }
+
+    /**
+     * Closed diagonal check for pushes. An empty square C that is not the player's, with walls on
+     * two adjacent sides, boxes on the other two and a wall on the diagonal between those boxes:
+     *
+     *      #
+     *     #C$
+     *      $#
+     *
+     * Neither box can move sideways because of the diagonal wall, and neither can be pushed away
+     * from C since the player can not get into C. The only move left is into C, which is a corner,
+     * so C has to take a box onto its goal and the other box has to already be on its goal.
+     */
+    private static boolean closedDiagonal(Map map, long[] boxes, int box, int player)
+    {
+        int[] steps = map.steps;
+        for (int s : steps) {
+            int c = box - s;
+            if (c == player || !map.isFloor(c) || State.isSet(boxes, c)) {
+                continue;
+            }
+            /* box is on side s of C, try the two perpendicular sides for the second box */
+            for (int t : steps) {
+                if (t == s || t == -s) {
+                    continue;
+                }
+                int other = c + t;
+                if (!State.isSet(boxes, other) || map.isFloor(c - s) || map.isFloor(c - t)
+                        || map.isFloor(c + s + t)) {
+                    continue;
+                }
+                boolean boxOnGoal = map.isGoal(box);
+                boolean otherOnGoal = map.isGoal(other);
+                if (map.isGoal(c) ? !boxOnGoal && !otherOnGoal : !boxOnGoal || !otherOnGoal) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Trap check for pulls. A pull moves the box towards the player, which can end with the player
+     * shut in a small pocket, typically a dead end behind the box it just pulled. Pulling a box needs
+     * the player on the square next to it and room to step back, both inside the player's region, and
+     * a box that is not pulled opens nothing up. So if no box can be pulled from inside the pocket,
+     * nothing can ever move again, and the state is dead unless every box already is on its goal.
+     * The pocket is flooded up to POCKET_CELLS squares, a larger region is taken as open.
+     */
+    private static boolean trapped(SolverContext context, Map map, long[] boxes, int player)
+    {
+        if (allOnGoals(map, boxes)) {
+            return false;
+        }
+        long[] pocket = context.deadlockScratch(boxes.length);
+        int[] cells = context.stack(POCKET_CELLS);
+        int count = 0;
+        cells[count++] = player;
+        State.set(pocket, player);
+        boolean trapped = true;
+        search:
+        for (int i = 0; i < count; i++) {
+            int cell = cells[i];
+            for (int step : map.steps) {
+                int next = cell + step;
+                if (!map.isFloor(next) || State.isSet(pocket, next)) {
+                    continue;
+                }
+                if (State.isSet(boxes, next)) {
+                    /* The box comes onto this cell and the player steps back beyond it */
+                    int back = cell - step;
+                    if (map.isFloor(back) && !State.isSet(boxes, back)) {
+                        trapped = false;
+                        break search;
+                    }
+                    continue;
+                }
+                if (count == POCKET_CELLS) {
+                    trapped = false;
+                    break search;
+                }
+                cells[count++] = next;
+                State.set(pocket, next);
+            }
+        }
+        /* Leave the scratch bitset cleared */
+        for (int i = 0; i < count; i++) {
+            State.clear(pocket, cells[i]);
+        }
+        return trapped;
+    }
+
+    private static boolean allOnGoals(Map map, long[] boxes)
+    {
+        for (int word = 0; word < boxes.length; word++) {
+            for (long bits = boxes[word]; bits != 0; bits &= bits - 1) {
+                if (!map.isGoal(word * Long.SIZE + Long.numberOfTrailingZeros(bits))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /* Largest player region the trap check floods, almost every trap is a dead end of a square or two */
+    private static final int POCKET_CELLS = 8;
+
+    private static final int MOVABLE = 0;
+    private static final int FROZEN_ON_GOALS = 1;
+    private static final int FROZEN_OFF_GOAL = 2;
+}
@@ -29,6 +29,25 @@ public enum Direction {
         }
     }
 
+    /**
+     *
+     * @return The direction that undoes this one
+     */
+    public Direction opposite()
+    {
+        switch (this)
+        {
+        case LEFT:
+            return RIGHT;
+        case RIGHT:
+            return LEFT;
+        case UP:
+            return DOWN;
+        default:
+            return UP;
+        }
+    }
+
     public int size() {
         return Direction.values().length;
     }
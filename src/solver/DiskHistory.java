@@ -0,0 +1,160 @@
+package solver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Set of state keys kept in sorted runs, each in its own memory mapped file in a scratch directory,
+ * so the operating system pages them in and out instead of the heap holding them. Keys are only
+ * added and looked up in sorted batches, which turns every lookup into a merge against the runs.
+ * Once there are more than MAX_RUNS runs they are merged into one, keeping the cost of a batch
+ * close to one pass over the set, as long as the set fits into a single mapping.
+ */
+final class DiskHistory implements AutoCloseable {
+
+    /**
+     *
+     * @param directory Where the scratch directory for the runs is created
+     */
+    DiskHistory(Path directory)
+    {
+        try {
+            this.directory = Files.createTempDirectory(directory, "history");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Removes the keys that are already in the set and adds the rest as a new run
+     * @param keys Sorted keys without repeats, compacted in place to the ones that were new
+     * @param values Value of each key, compacted along with the keys
+     * @param size Number of keys
+     * @return Number of keys that were new, they are now at the start of keys
+     */
+    int addAll(long[] keys, int[] values, int size)
+    {
+        for (LongBuffer run : runs) {
+            size = subtract(keys, values, size, run);
+        }
+        if (size > 0) {
+            LongBuffer run = create(size);
+            run.put(keys, 0, size);
+            runs.add(run);
+            this.size += size;
+            if (runs.size() > MAX_RUNS && this.size <= MAX_RUN_KEYS) {
+                compact();
+            }
+        }
+        return size;
+    }
+
+    long size()
+    {
+        return size;
+    }
+
+    /**
+     * Deletes the scratch files. The mappings stay valid until they are garbage collected,
+     * which on the platforms we run on does not keep the space from being freed.
+     */
+    public void close()
+    {
+        runs.clear();
+        try {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Keeps the keys that are not in the run, both are sorted so this is a single merge pass
+     */
+    private static int subtract(long[] keys, int[] values, int size, LongBuffer run)
+    {
+        int kept = 0, r = 0, length = run.limit();
+        for (int i = 0; i < size; i++) {
+            long key = keys[i];
+            while (r < length && run.get(r) < key) {
+                r++;
+            }
+            if (r == length || run.get(r) != key) {
+                values[kept] = values[i];
+                keys[kept++] = key;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Merges every run into a single new one
+     */
+    private void compact()
+    {
+        LongBuffer merged = create((int) size());
+        int[] positions = new int[runs.size()];
+        while (true) {
+            int best = -1;
+            long min = 0;
+            for (int i = 0; i < runs.size(); i++) {
+                LongBuffer run = runs.get(i);
+                if (positions[i] < run.limit() && (best < 0 || run.get(positions[i]) < min)) {
+                    best = i;
+                    min = run.get(positions[i]);
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            merged.put(min);
+            positions[best]++;
+        }
+        runs.clear();
+        runs.add(merged);
+        try {
+            /* The runs are all merged, only the newest file is still needed */
+            for (Path file : files.subList(0, files.size() - 1)) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        files.subList(0, files.size() - 1).clear();
+    }
+
+    /**
+     *
+     * @return A mapped buffer for a new run of the given number of keys, positioned at its start
+     */
+    private LongBuffer create(int keys)
+    {
+        try {
+            Path file = Files.createTempFile(directory, "run", ".keys");
+            files.add(file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) keys * Long.BYTES).asLongBuffer();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final int MAX_RUNS = 8;
+    // A mapping is at most 2 GB
+    private static final long MAX_RUN_KEYS = Integer.MAX_VALUE / Long.BYTES;
+
+    private final Path directory;
+    private final ArrayList<LongBuffer> runs = new ArrayList<LongBuffer>();
+    private final ArrayList<Path> files = new ArrayList<Path>();
+    private long size;
+}
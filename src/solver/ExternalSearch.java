@@ -0,0 +1,207 @@
+package solver;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * Search over box moves with the duplicate table on disk, for levels whose history does not fit
+ * into the heap. States are expanded in layers of equal moves plus lower bound, lowest first, and
+ * in the order they were found within a layer. The bound never drops by more than the number of
+ * box moves, so children land in the current layer or a later one.
+ *
+ * New states are not checked one by one but collected in a buffer, and whenever the buffer is full,
+ * and whenever the current layer runs out, it is sorted by key, repeats are dropped and the rest is
+ * merged against the keys on disk (see DiskHistory). The states that survive go to their layers.
+ * Every state is checked against all states flushed before it, so detecting duplicates this late
+ * never loses any, it only lets them use buffer space for a while.
+ *
+ * Only the keys go to disk. The states of the layers stay in the heap, expanded states are
+ * dropped from their layer, their paths only need the node pool of the context.
+ */
+public final class ExternalSearch implements BoxSearch {
+
+    public ExternalSearch(SolverContext context)
+    {
+        this(context, DEFAULT_DIRECTORY, DEFAULT_BATCH);
+    }
+
+    /**
+     *
+     * @param directory Where the scratch files of the history go, they are deleted by close
+     * @param batch Number of states collected before they are checked against the history
+     */
+    public ExternalSearch(SolverContext context, Path directory, int batch)
+    {
+        this.context = context;
+        this.history = new DiskHistory(directory);
+        this.keys = new long[batch];
+        this.bounds = new int[batch];
+        this.states = new State[batch];
+        this.order = new int[batch];
+        this.sorted = new long[batch];
+    }
+
+    /**
+     * Searches from the state with the player on the start position. The history is kept between
+     * calls, so like the start positions of findBoxPath later searches skip what earlier ones saw.
+     * @return The final state, or null if there is no solution from this start position
+     */
+    public State findBoxPath(State state, int playerStartX, int playerStartY)
+    {
+        state.player = state.map.index(playerStartX, playerStartY);
+        if (state.lowerBound == LowerBound.INFEASIBLE) {
+            return null;
+        }
+
+        layers.clear();
+        add(state, state.lowerBound);
+        flush();
+        ArrayList<State> children = new ArrayList<State>();
+        while (!layers.isEmpty()) {
+            int bound = layers.firstKey();
+            ArrayList<State> layer = layers.get(bound);
+            for (int i = 0; ; i++) {
+                if (i == layer.size()) {
+                    /* Buffered states may still belong to this layer */
+                    flush();
+                    if (i == layer.size()) {
+                        break;
+                    }
+                }
+                if (context.shouldStop()) {
+                    return null;
+                }
+                State current = layer.set(i, null);
+                open--;
+                if (current.isFinal()) {
+                    return current;
+                }
+                int moves = bound - current.lowerBound;
+                children.clear();
+                Search.expand(context, current, children);
+                for (State child : children) {
+                    add(child, Math.max(bound, moves + child.boxMoves + child.lowerBound));
+                }
+            }
+            layers.remove(bound);
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the history from disk
+     */
+    public void close()
+    {
+        history.close();
+    }
+
+    /**
+     *
+     * @param bound Moves so far plus lower bound of the state, its layer
+     */
+    private void add(State state, int bound)
+    {
+        keys[size] = Search.key(context, state);
+        bounds[size] = bound;
+        states[size] = state;
+        if (++size == keys.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Delayed duplicate detection for the buffered states, the new ones are added to their layers
+     */
+    private void flush()
+    {
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        sort(keys, order, 0, size - 1);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            long key = keys[order[i]];
+            if (unique == 0 || key != sorted[unique - 1]) {
+                sorted[unique] = key;
+                order[unique++] = order[i];
+            }
+        }
+        int added = history.addAll(sorted, order, unique);
+        for (int i = 0; i < added; i++) {
+            int index = order[i];
+            context.limits().retained();
+            layers.computeIfAbsent(bounds[index], bound -> new ArrayList<State>()).add(states[index]);
+        }
+        open += added;
+        context.stats().duplicates(size - added);
+        context.stats().open(open);
+        Arrays.fill(states, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Quicksort of the indices between low and high inclusive by their keys
+     */
+    private static void sort(long[] keys, int[] order, int low, int high)
+    {
+        while (high - low > INSERTION_SORT) {
+            long a = keys[order[low]], b = keys[order[(low + high) >>> 1]], c = keys[order[high]];
+            long pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            int i = low, j = high;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) {
+                    i++;
+                }
+                while (keys[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i++] = order[j];
+                    order[j--] = swap;
+                }
+            }
+            /* Recurse into the smaller side so the stack stays logarithmic */
+            if (j - low < high - i) {
+                sort(keys, order, low, j);
+                low = i;
+            }
+            else {
+                sort(keys, order, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            int index = order[i];
+            int j = i;
+            for (; j > low && keys[order[j - 1]] > keys[index]; j--) {
+                order[j] = order[j - 1];
+            }
+            order[j] = index;
+        }
+    }
+
+    public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("java.io.tmpdir"));
+    public static final int DEFAULT_BATCH = 1 << 20;
+    private static final int INSERTION_SORT = 16;
+
+    private final SolverContext context;
+    private final DiskHistory history;
+    // Layers by moves plus lower bound
+    private final TreeMap<Integer, ArrayList<State>> layers = new TreeMap<Integer, ArrayList<State>>();
+    // States in the layers, for the stats
+    private long open;
+
+    // The buffer, in the order the states were found
+    private final long[] keys;
+    private final int[] bounds;
+    private final State[] states;
+    private int size;
+    // Buffer indices sorted by key, and the sorted keys
+    private final int[] order;
+    private final long[] sorted;
+}
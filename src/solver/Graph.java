@@ -105,6 +105,93 @@ class Graph
                 bridgeUtil(i, visited, disc, low, parent);
     }
 
+    // Finds the articulation points, the vertices whose removal disconnects
+    // the graph, with the same DFS as bridge(). The DFS keeps its own stack
+    // instead of recursing, a large map would overflow the call stack.
+    // Returns a bitset over the vertices, see State.isSet
+    long[] articulationPoints()
+    {
+        long[] points = new long[Map.words(V)];
+        int disc[] = new int[V];
+        int low[] = new int[V];
+        int parent[] = new int[V];
+        int children[] = new int[V];
+        int stack[] = new int[V];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Iterator<Integer> next[] = new Iterator[V];
+
+        for (int root = 0; root < V; root++)
+        {
+            if (disc[root] != 0)
+                continue;
+            int size = 0;
+            parent[root] = NIL;
+            disc[root] = low[root] = ++time;
+            next[root] = adj[root].iterator();
+            stack[size++] = root;
+            while (size > 0)
+            {
+                int u = stack[size - 1];
+                if (next[u].hasNext())
+                {
+                    int v = next[u].next();
+                    // Tree edge, descend into v
+                    if (disc[v] == 0)
+                    {
+                        parent[v] = u;
+                        children[u]++;
+                        disc[v] = low[v] = ++time;
+                        next[v] = adj[v].iterator();
+                        stack[size++] = v;
+                    }
+                    // Back edge
+                    else if (v != parent[u])
+                        low[u] = Math.min(low[u], disc[v]);
+                    continue;
+                }
+
+                // u is done, pass its low value up to its parent
+                size--;
+                int p = parent[u];
+                if (p == NIL)
+                {
+                    // The root is an articulation point if it has
+                    // more than one child in the DFS tree
+                    if (children[u] > 1)
+                        State.set(points, u);
+                }
+                else
+                {
+                    low[p] = Math.min(low[p], low[u]);
+                    // No vertex below u reaches above p, so removing
+                    // p cuts u off from the rest
+                    if (parent[p] != NIL && low[u] >= disc[p])
+                        State.set(points, p);
+                }
+            }
+        }
+        return points;
+    }
+
+    // Function to add edges between all cells of the map that are not walls
+    void mapToGraph(Map map)
+    {
+        int width = map.getWidth();
+        int height = map.getHeight();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (!map.isWall(x, y)) {
+                    if (x + 1 < width && !map.isWall(x + 1, y)) {
+                        addEdge(map.index(x, y), map.index(x + 1, y));
+                    }
+                    if (y + 1 < height && !map.isWall(x, y + 1)) {
+                        addEdge(map.index(x, y), map.index(x, y + 1));
+                    }
+                }
+            }
+        }
+    }
+
     // Helper function to convert 2D grid coordinates to vertex index
     int getIndex(int row, int col, int rows, int cols) {
         return row * cols + col;
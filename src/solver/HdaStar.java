@@ -0,0 +1,228 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hash distributed best first search over several threads. Every state key has an owner, picked
+ * from its high bits, and only the owner keeps the state in its open list and duplicate table, so
+ * workers never share a table. A worker that generates a state owned by another worker hands it
+ * over through the owner's mailbox, a lock free queue that the owner drains before each expansion.
+ * A worker with nothing to do parks until a sender unparks it, or for IDLE_NANOS at most, so idle
+ * workers leave the cores to the busy ones and to the other threads of the process.
+ *
+ * Termination: a counter holds the number of states that are in a mailbox or an open list, or are
+ * being expanded. Children are counted before their parent is let go, so the counter only reaches
+ * zero once no worker has or can get any more work, and then there is no solution.
+ *
+ * Each worker has a context from the pool for as long as the engine is open, so like the start
+ * positions of the single threaded search, later searches skip what earlier ones have seen.
+ * The owner of a key does not change between searches, so neither does the table it lands in.
+ */
+public final class HdaStar implements BoxSearch {
+
+    /**
+     *
+     * @param context Keys the start state and cancels the search, every worker takes its own context from the pool
+     */
+    public HdaStar(SolverContext context)
+    {
+        this(context, DEFAULT_WORKERS);
+    }
+
+    /**
+     *
+     * @param workers Number of worker threads
+     */
+    public HdaStar(SolverContext context, int workers)
+    {
+        this.context = context;
+        this.contexts = new SolverContext[workers];
+        for (int i = 0; i < workers; i++) {
+            contexts[i] = SolverContext.acquire();
+        }
+    }
+
+    /**
+     * Searches from the state with the player on the start position
+     * @return The final state, or null if there is no solution from this start position
+     */
+    public State findBoxPath(State state, int playerStartX, int playerStartY)
+    {
+        state.player = state.map.index(playerStartX, playerStartY);
+        if (state.lowerBound == LowerBound.INFEASIBLE) {
+            return null;
+        }
+        return search(state);
+    }
+
+    /**
+     * Returns the contexts of the workers to the pool
+     */
+    public void close()
+    {
+        for (SolverContext local : contexts) {
+            local.release();
+        }
+    }
+
+    private State search(State root)
+    {
+        workers = new Worker[contexts.length];
+        pending.set(0);
+        found.set(null);
+        done = false;
+        Thread[] threads = new Thread[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            contexts[i].limit(context.limits());
+            contexts[i].share(context.nodes());
+            workers[i] = new Worker(contexts[i]);
+            threads[i] = new Thread(workers[i], "hda-" + i);
+            workers[i].thread = threads[i];
+        }
+        send(context, root);
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            finish();
+            Thread.currentThread().interrupt();
+        }
+        if (failure.get() != null) {
+            throw new RuntimeException(failure.get());
+        }
+        return found.get();
+    }
+
+    /**
+     * Counts the state and puts it into the mailbox of its owner
+     */
+    private void send(SolverContext context, State state)
+    {
+        long key = Search.key(context, state);
+        pending.incrementAndGet();
+        Worker owner = workers[(int) ((key >>> 32) % workers.length)];
+        owner.mailbox.add(new Message(state, key));
+        if (owner.idle) {
+            LockSupport.unpark(owner.thread);
+        }
+    }
+
+    /**
+     * Ends the search and wakes the idle workers so they see it
+     */
+    private void finish()
+    {
+        done = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    private static final class Message {
+
+        Message(State state, long key)
+        {
+            this.state = state;
+            this.key = key;
+        }
+
+        final State state;
+        final long key;
+    }
+
+    private final class Worker implements Runnable {
+
+        Worker(SolverContext local)
+        {
+            this.local = local;
+        }
+
+        public void run()
+        {
+            try {
+                search(local);
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                finish();
+            }
+        }
+
+        private void search(SolverContext local)
+        {
+            ArrayList<State> children = new ArrayList<State>();
+            while (!done) {
+                if (context.shouldStop()) {
+                    finish();
+                    return;
+                }
+                for (Message message = mailbox.poll(); message != null; message = mailbox.poll()) {
+                    if (local.history.add(message.key)) {
+                        local.limits().retained();
+                        open.add(message.state);
+                    }
+                    else {
+                        local.stats().duplicate();
+                        pending.decrementAndGet();
+                    }
+                }
+                if (open.isEmpty()) {
+                    if (pending.get() == 0) {
+                        finish();
+                    }
+                    else {
+                        /* Flag first and look again, so a sender that missed the flag has already delivered */
+                        idle = true;
+                        if (mailbox.isEmpty() && !done) {
+                            LockSupport.parkNanos(this, IDLE_NANOS);
+                        }
+                        idle = false;
+                    }
+                    continue;
+                }
+
+                State state = open.remove();
+                if (state.isFinal()) {
+                    found.compareAndSet(null, state);
+                    finish();
+                    return;
+                }
+                children.clear();
+                Search.expand(local, state, children);
+                for (State child : children) {
+                    send(local, child);
+                }
+                /* Every state that is waiting, in a mailbox or an open list */
+                local.stats().open(pending.decrementAndGet());
+            }
+        }
+
+        final ConcurrentLinkedQueue<Message> mailbox = new ConcurrentLinkedQueue<Message>();
+        Thread thread;
+        /* Set while the worker may be parked, senders only unpark it then */
+        volatile boolean idle;
+        private final SolverContext local;
+        private final PriorityQueue<State> open = new PriorityQueue<State>();
+    }
+
+    public static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    /* Longest park of an idle worker, a backstop for the last state finishing without a send */
+    private static final long IDLE_NANOS = 1000000;
+
+    private final SolverContext context;
+    private final SolverContext[] contexts;
+    private Worker[] workers;
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicReference<State> found = new AtomicReference<State>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    private volatile boolean done;
+}
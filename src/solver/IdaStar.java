@@ -0,0 +1,117 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Iterative deepening A* over box moves. Each iteration is a depth first search that cuts off
+ * every state whose moves so far plus lower bound exceed the threshold, the next threshold is
+ * the smallest value that was cut off. Only the current path and the children of the states on
+ * it are kept, so memory does not grow with the number of expanded states.
+ *
+ * Successors come from {@link Search#expand} like in the best first search. Duplicates are
+ * detected with a fixed size, replacing transposition table from the context that maps a state
+ * key to the fewest moves it was reached with in the current iteration. A lost entry only costs
+ * a re-expansion, so the table size trades time for memory without affecting the result.
+ */
+public final class IdaStar {
+
+    private IdaStar(SolverContext context)
+    {
+        this.context = context;
+        this.table = context.boundedTable();
+    }
+
+    /**
+     * Searches from the state with the player on the start position
+     * @return The final state, or null if there is no solution from this start position
+     */
+    public static State findBoxPath(SolverContext context, State state, int playerStartX, int playerStartY)
+    {
+        state.player = state.map.index(playerStartX, playerStartY);
+        if (state.lowerBound == LowerBound.INFEASIBLE) {
+            return null;
+        }
+        return new IdaStar(context).search(state);
+    }
+
+    private State search(State root)
+    {
+        threshold = root.lowerBound;
+        while (true) {
+            table.clear();
+            table.put(Search.key(context, root), 0);
+            next = Integer.MAX_VALUE;
+            if (dfs(root, 0)) {
+                return found;
+            }
+            if (next == Integer.MAX_VALUE || context.shouldStop()) {
+                /* Nothing was cut off, the whole space has been searched */
+                return null;
+            }
+            threshold = next;
+        }
+    }
+
+    /**
+     *
+     * @param moves Number of box moves from the root to the state
+     * @return True if a final state was found below the state
+     */
+    private boolean dfs(State state, int moves)
+    {
+        if (context.shouldStop()) {
+            return false;
+        }
+        int bound = moves + state.lowerBound;
+        if (bound > threshold) {
+            next = Math.min(next, bound);
+            return false;
+        }
+        if (state.isFinal()) {
+            found = state;
+            return true;
+        }
+
+        /* The lower bound scratch is reused by the recursion, so generate every child first */
+        ArrayList<State> children = new ArrayList<State>();
+        int mark = context.nodes().size();
+        Search.expand(context, state, children);
+        /* The open states of a depth first search are the children along the path */
+        open += children.size();
+        context.stats().open(open);
+        Collections.sort(children);
+        for (State child : children) {
+            long key = Search.key(context, child);
+            int seen = table.get(key);
+            /* Reached before in no more moves, so its subtree has been searched with at least this budget */
+            int childMoves = moves + child.boxMoves;
+            if (seen != TranspositionTable.NOT_FOUND && seen <= childMoves) {
+                context.stats().duplicate();
+                continue;
+            }
+            table.put(key, childMoves);
+            context.stats().history(table.size());
+            if (dfs(child, childMoves)) {
+                return true;
+            }
+        }
+        /* Only the path to the state being expanded is kept in the node pool */
+        context.nodes().truncate(mark);
+        open -= children.size();
+        return false;
+    }
+
+    /**
+     * Entries of the transposition table, 12 bytes each
+     */
+    public static final int DEFAULT_TABLE_CAPACITY = 1 << 16;
+
+    private final SolverContext context;
+    private final TranspositionTable table;
+    private int threshold;
+    private int next;
+    private State found;
+    // Children generated along the current path, for the stats
+    private int open;
+}
@@ -0,0 +1,84 @@
+package solver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The running count of a solve against its budget and token, shared by every context
+ * and thread working on the solve
+ */
+final class Limits {
+
+    static final Limits NONE = new Limits(Budget.UNLIMITED, new CancellationToken());
+
+    Limits(Budget budget, CancellationToken token)
+    {
+        this.budget = budget;
+        this.token = token;
+        this.start = System.nanoTime();
+        this.nanos = budget.getMaxMillis() >= Long.MAX_VALUE / 1000000 ? Long.MAX_VALUE : budget.getMaxMillis() * 1000000;
+    }
+
+    /**
+     *
+     * @return True once the token is cancelled or the budget is used up, see stopped for which
+     */
+    boolean exceeded()
+    {
+        if (stopped != null) {
+            return true;
+        }
+        if (token.isCancelled()) {
+            stopped = Outcome.CANCELLED;
+        }
+        else if (expanded.get() > budget.getMaxExpanded() || retained.get() > budget.getMaxRetained()
+                || System.nanoTime() - start > nanos) {
+            stopped = Outcome.BUDGET_EXHAUSTED;
+        }
+        return stopped != null;
+    }
+
+    void expanded()
+    {
+        expanded.incrementAndGet();
+    }
+
+    void retained()
+    {
+        retained.incrementAndGet();
+    }
+
+    SolverStats stats()
+    {
+        return stats;
+    }
+
+    /**
+     * Completes the stats once the solve is over. Every retained state went into a duplicate table,
+     * so the count is the size the tables reached.
+     * @param words Length of the box bitsets of the level
+     */
+    SolverStats finish(int words)
+    {
+        stats.history(retained.get());
+        stats.finish(expanded.get(), words);
+        return stats;
+    }
+
+    /**
+     *
+     * @return CANCELLED or BUDGET_EXHAUSTED if the solve had to stop, otherwise null
+     */
+    Outcome stopped()
+    {
+        return stopped;
+    }
+
+    private final Budget budget;
+    private final CancellationToken token;
+    private final long start;
+    private final long nanos;
+    private final AtomicLong expanded = new AtomicLong();
+    private final AtomicLong retained = new AtomicLong();
+    private volatile Outcome stopped;
+    private final SolverStats stats = new SolverStats();
+}
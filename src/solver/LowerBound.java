@@ -0,0 +1,188 @@
+package solver;
+
+import java.util.Arrays;
+
+/**
+ * Lower bound on the number of box moves left: a minimum cost perfect matching of boxes to
+ * goals, costed with the goal distance tables of the map and solved with the Hungarian method.
+ * Every box needs at least its distance to the goal it ends on, and no two boxes can end on
+ * the same goal, so the bound is admissible. A configuration without a finite matching can
+ * never be solved and is reported as INFEASIBLE.
+ *
+ * {@link #solve} computes the matching of a state from scratch and keeps it as the base, then
+ * {@link #move} gives the bound after moving a single box with one augmentation, O(n^2) instead
+ * of O(n^3), without changing the base. Arrays are reused, one instance per SolverContext.
+ */
+final class LowerBound {
+
+    static final int INFEASIBLE = Integer.MAX_VALUE;
+
+    /**
+     *
+     * @return The bound for the boxes, which become the base for move
+     */
+    int solve(Map map, long[] boxes)
+    {
+        prepare(map, boxes);
+        System.arraycopy(rowCell, 0, baseRowCell, 0, rows + 1);
+        if (rows > columns) {
+            /* More boxes than goals, the matching says nothing */
+            return 0;
+        }
+        Arrays.fill(u, 0);
+        Arrays.fill(v, 0);
+        Arrays.fill(p, 0);
+        for (int row = 1; row <= rows; row++) {
+            augment(row);
+        }
+        System.arraycopy(u, 0, baseU, 0, rows + 1);
+        System.arraycopy(v, 0, baseV, 0, columns + 1);
+        System.arraycopy(p, 0, baseP, 0, columns + 1);
+        return total();
+    }
+
+    /**
+     *
+     * @return The bound for the base boxes with the box on from moved to to
+     */
+    int move(int from, int to)
+    {
+        System.arraycopy(baseRowCell, 0, rowCell, 0, rows + 1);
+        int row = 1;
+        while (rowCell[row] != from) {
+            row++;
+        }
+        rowCell[row] = to;
+        if (rows > columns) {
+            return 0;
+        }
+        if (rows != columns) {
+            /* Potentials of unmatched goals are constrained, only a square problem can be repaired in place */
+            Arrays.fill(u, 0);
+            Arrays.fill(v, 0);
+            Arrays.fill(p, 0);
+            for (int r = 1; r <= rows; r++) {
+                augment(r);
+            }
+            return total();
+        }
+        System.arraycopy(baseU, 0, u, 0, rows + 1);
+        System.arraycopy(baseV, 0, v, 0, columns + 1);
+        System.arraycopy(baseP, 0, p, 0, columns + 1);
+        /* Unmatch the moved box and lower its potential until every edge is feasible again,
+           the other boxes keep their tight edges, so one augmenting path restores optimality */
+        int min = Integer.MAX_VALUE;
+        for (int j = 1; j <= columns; j++) {
+            if (p[j] == row) {
+                p[j] = 0;
+            }
+            min = Math.min(min, cost(row, j) - v[j]);
+        }
+        u[row] = min;
+        augment(row);
+        return total();
+    }
+
+    /**
+     * Reads the boxes into rows, and sizes the arrays for the map
+     */
+    private void prepare(Map map, long[] boxes)
+    {
+        this.map = map;
+        columns = map.getGoalCount();
+        rows = 0;
+        for (int i = 0; i < boxes.length; i++) {
+            rows += Long.bitCount(boxes[i]);
+        }
+        int size = Math.max(rows, columns) + 1;
+        if (u == null || u.length < size) {
+            u = new int[size];
+            v = new int[size];
+            p = new int[size];
+            way = new int[size];
+            minv = new int[size];
+            used = new boolean[size];
+            rowCell = new int[size];
+            baseRowCell = new int[size];
+            baseU = new int[size];
+            baseV = new int[size];
+            baseP = new int[size];
+        }
+        int row = 1;
+        for (int cell = State.next(boxes, 0); cell >= 0; cell = State.next(boxes, cell + 1)) {
+            rowCell[row++] = cell;
+        }
+    }
+
+    private int cost(int row, int column)
+    {
+        return map.getGoalDistance(column - 1, rowCell[row]);
+    }
+
+    /**
+     * One phase of the Hungarian method (potentials u, v, column to row matching p, all 1 based),
+     * finds the cheapest augmenting path from the unmatched row to a free column
+     */
+    private void augment(int row)
+    {
+        p[0] = row;
+        int j0 = 0;
+        Arrays.fill(minv, 0, columns + 1, Integer.MAX_VALUE);
+        Arrays.fill(used, 0, columns + 1, false);
+        do {
+            used[j0] = true;
+            int i0 = p[j0], delta = Integer.MAX_VALUE, j1 = 0;
+            for (int j = 1; j <= columns; j++) {
+                if (!used[j]) {
+                    int current = cost(i0, j) - u[i0] - v[j];
+                    if (current < minv[j]) {
+                        minv[j] = current;
+                        way[j] = j0;
+                    }
+                    if (minv[j] < delta) {
+                        delta = minv[j];
+                        j1 = j;
+                    }
+                }
+            }
+            for (int j = 0; j <= columns; j++) {
+                if (used[j]) {
+                    u[p[j]] += delta;
+                    v[j] -= delta;
+                }
+                else {
+                    minv[j] -= delta;
+                }
+            }
+            j0 = j1;
+        } while (p[j0] != 0);
+        do {
+            int j1 = way[j0];
+            p[j0] = p[j1];
+            j0 = j1;
+        } while (j0 != 0);
+    }
+
+    private int total()
+    {
+        int total = 0;
+        for (int j = 1; j <= columns; j++) {
+            if (p[j] != 0) {
+                int cost = cost(p[j], j);
+                if (cost >= Map.UNREACHABLE) {
+                    return INFEASIBLE;
+                }
+                total += cost;
+            }
+        }
+        return total;
+    }
+
+    private Map map;
+    private int rows;
+    private int columns;
+
+    private int[] u, v, p, way, minv, rowCell;
+    private boolean[] used;
+    private int[] baseU, baseV, baseP, baseRowCell;
+}
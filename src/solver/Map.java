@@ -11,59 +11,216 @@ public final class Map {
 
     public Map(ArrayList<String> map)
     {
-        startMap = map;
-        height = map.size();
-        width = 0;
-        for (int i = 0; i < height; i++) {
-            if (map.get(i).length() > width)
-            {
-                width = map.get(i).length();
-            }
-        }
-        
-        
+        this(Board.fromLines(map), false);
+    }
+
+    public Map(Board board)
+    {
+        this(board, false);
+    }
+
+    /**
+     *
+     * @param pulls Whether boxes on this map are pulled, as in the reverse search, instead of pushed
+     */
+    private Map(Board board, boolean pulls)
+    {
+        this.pulls = pulls;
+        this.board = board;
+        height = board.getHeight();
+        width = board.getWidth();
 
         mapMatrix = new char[height][width];
-        for (char[] row : mapMatrix)
-            Arrays.fill(row, ' ');
-        for (int i = 0; i < map.size(); i++) {
-            for (int j = 0; j < map.get(i).length(); j++) {
-                char c = startMap.get(i).charAt(j);
-                if (c == '#' | c == '.') {
-                    mapMatrix[i][j] = startMap.get(i).charAt(j);
-                }
-                else if (c == '+' | c == '*') {
-                    mapMatrix[i][j] = '.';
-                }
-                else
-                {
-                    mapMatrix[i][j] = ' ';
-                }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int cell = index(x, y);
+                mapMatrix[y][x] = board.isWall(cell) ? '#' : board.isGoal(cell) ? '.' : ' ';
             }
         }
-        
 
-        inverseMap = new ArrayList<String>();
-        for (int i = 0; i < map.size(); i++) {
-            String stringLine = new String();
-            for (int j = 0; j < map.get(i).length(); j++) {
-                char c = startMap.get(i).charAt(j);
-                if (c=='$'){
-                    stringLine += ".";
-                }
-                else if(c=='.' | c=='+'){
-                    stringLine += "$";
-                }
-                else{
-                    stringLine += c;
+        steps = new int[] {-1, 1, -width, width};
+        zobrist = new Zobrist(width * height);
+        goals = new long[words(width * height)];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (isGoal(x, y)) {
+                    goals[index(x, y) >>> 6] |= 1L << index(x, y);
+                    goalCount++;
                 }
             }
-            inverseMap.add(stringLine);
         }
+        findGoalDistances();
+        findTunnels();
+        bitboard = Bitboard.fits(width, height) ? new Bitboard(this) : null;
     }
     
+    /**
+     *
+     * @return The map of the reverse search, boxes start on the goals of m and are pulled back to its boxes
+     */
     public static Map inverted(Map m){
-        return new Map(m.inverseMap);
+        return new Map(m.board.inverted(), true);
+    }
+
+    /**
+     *
+     * @return The map of the forward search for the level an inverted map was made from, boxes are pushed onto its goals
+     */
+    public static Map reverted(Map inverted){
+        return new Map(inverted.board.inverted(), false);
+    }
+
+    /**
+     * Distance tables for every goal, the number of box moves it takes to bring a lone box from
+     * a cell onto the goal. Works backwards from each goal: a box can be pushed from c onto c+d
+     * when c-d and c+d are not walls, and pulled from c onto c+d when c+d and c+2d are not walls.
+     * A square is dead when no goal can be reached from it, even with no other box on the map.
+     */
+    private void findGoalDistances()
+    {
+        int cells = width * height;
+        int[] queue = new int[cells];
+        goalCells = new int[goalCount];
+        goalDistances = new int[goalCount][];
+        int goal = 0;
+        for (int cell = State.next(goals, 0); cell >= 0; cell = State.next(goals, cell + 1)) {
+            int[] distance = new int[cells];
+            Arrays.fill(distance, UNREACHABLE);
+            int head = 0, tail = 0;
+            distance[cell] = 0;
+            queue[tail++] = cell;
+            while (head < tail) {
+                int current = queue[head++];
+                int x = cellX(current), y = cellY(current);
+                for (int[] d : DIRECTIONS) {
+                    /* The box came from (x, y) - d, the player stood at the given square while moving it */
+                    int fromX = x - d[0], fromY = y - d[1];
+                    int playerX = pulls ? x + d[0] : fromX - d[0];
+                    int playerY = pulls ? y + d[1] : fromY - d[1];
+                    if (isFloor(fromX, fromY) && isFloor(playerX, playerY)
+                            && distance[index(fromX, fromY)] == UNREACHABLE) {
+                        distance[index(fromX, fromY)] = distance[current] + 1;
+                        queue[tail++] = index(fromX, fromY);
+                    }
+                }
+            }
+            goalCells[goal] = cell;
+            goalDistances[goal++] = distance;
+        }
+
+        dead = new long[words(cells)];
+        for (int cell = 0; cell < cells; cell++) {
+            boolean live = false;
+            for (int[] distance : goalDistances) {
+                live |= distance[cell] != UNREACHABLE;
+            }
+            if (!live && !isWall(cellX(cell), cellY(cell))) {
+                State.set(dead, cell);
+            }
+        }
+    }
+
+    /**
+     * Tunnel squares: articulation squares of the floor (see Graph.articulationPoints) with walls on
+     * both sides across an axis. Without the square the floor falls apart into the part before and
+     * the part after it, so while a box stands there the player is stuck on one side, and the box can
+     * only move along the axis, away from the player when pushed and towards it when pulled.
+     */
+    private void findTunnels()
+    {
+        Graph graph = new Graph(width * height);
+        graph.mapToGraph(this);
+        long[] articulation = graph.articulationPoints();
+        tunnels = new long[2][words(width * height)];
+        for (int cell = State.next(articulation, 0); cell >= 0; cell = State.next(articulation, cell + 1)) {
+            int x = cellX(cell), y = cellY(cell);
+            if (!isFloor(x, y - 1) && !isFloor(x, y + 1)) {
+                State.set(tunnels[0], cell);
+            }
+            if (!isFloor(x - 1, y) && !isFloor(x + 1, y)) {
+                State.set(tunnels[1], cell);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return Whether the cell is a tunnel square for moves in the direction, see findTunnels
+     */
+    public boolean isTunnel(int cell, Direction move)
+    {
+        return State.isSet(tunnels[move.ordinal() >>> 1], cell);
+    }
+
+    /**
+     *
+     * @return The flood fill for small maps, or null if the map has too many cells, see Bitboard
+     */
+    Bitboard bitboard()
+    {
+        return bitboard;
+    }
+
+    /**
+     *
+     * @param goal Index of the goal, in cell order
+     * @return Number of box moves from the cell to the goal with no other box on the map, or UNREACHABLE
+     */
+    public int getGoalDistance(int goal, int cell)
+    {
+        return goalDistances[goal][cell];
+    }
+
+    /**
+     *
+     * @return Cell of the goal with the given index, goals are indexed in cell order
+     */
+    public int getGoalCell(int goal)
+    {
+        return goalCells[goal];
+    }
+
+    private boolean isFloor(int x, int y)
+    {
+        return x >= 0 && y >= 0 && x < width && y < height && !isWall(x, y);
+    }
+
+    /**
+     *
+     * @return Whether the cell is on the map and not a wall
+     */
+    boolean isFloor(int cell)
+    {
+        return cell >= 0 && cell < width * height && mapMatrix[cell / width][cell % width] != '#';
+    }
+
+    public boolean isDead(int x, int y)
+    {
+        return State.isSet(dead, index(x, y));
+    }
+
+    public boolean isDead(int cell)
+    {
+        return State.isSet(dead, cell);
+    }
+
+    public boolean isGoal(int cell)
+    {
+        return State.isSet(goals, cell);
+    }
+
+    /**
+     *
+     * @return Difference in cell index of a step in the direction
+     */
+    public int step(Direction direction)
+    {
+        return steps[direction.ordinal()];
+    }
+
+    public boolean isPulling()
+    {
+        return pulls;
     }
     
     public int getHeight()
@@ -75,6 +232,54 @@ public final class Map {
         return this.width;
     }
 
+    /**
+     * Cells are numbered row by row, so a position fits in a single int and
+     * a set of cells fits in a long[] bitset of {@link #words(int)} words
+     */
+    public int index(int x, int y)
+    {
+        return y * width + x;
+    }
+    public int cellX(int cell)
+    {
+        return cell % width;
+    }
+    public int cellY(int cell)
+    {
+        return cell / width;
+    }
+    public int getCellCount()
+    {
+        return width * height;
+    }
+
+    /**
+     *
+     * @return Number of longs needed for a bitset over the given number of cells
+     */
+    public static int words(int cells)
+    {
+        return (cells + 63) >>> 6;
+    }
+
+    /**
+     *
+     * @return Bitset of all goal cells, must not be modified
+     */
+    public long[] getGoals()
+    {
+        return goals;
+    }
+    public int getGoalCount()
+    {
+        return goalCount;
+    }
+
+    public Zobrist getZobrist()
+    {
+        return zobrist;
+    }
+
     public boolean isEmpty(int x, int y)
     {
         char c = mapMatrix[y][x];
@@ -107,21 +312,38 @@ public final class Map {
      */
     public String toString()
     {
-        String out = new String("");
-        for (int i = 0; i < startMap.size(); i++) {
-            if (i==0) {
-                out += startMap.get(i);
-            } else {
-                out += System.getProperty("line.separator")+startMap.get(i);
-            }
-        }
-        return out;
+        return board.toString();
+    }
+
+    /**
+     *
+     * @return The level this map was made from, for an inverted map with boxes and goals swapped
+     */
+    public Board getBoard()
+    {
+        return board;
     }
     
     
     public char[][] mapMatrix;
-    private ArrayList<String> startMap;
-    public ArrayList<String> inverseMap;
+    private final Board board;
+    private long[] goals;
+    private long[] dead;
+    // Tunnel squares for horizontal moves, then for vertical moves
+    private long[][] tunnels;
+    private final Bitboard bitboard;
+    private int[] goalCells;
+    private int[][] goalDistances;
+    private final boolean pulls;
+    // Cell index steps indexed by Direction ordinal
+    final int[] steps;
+    private Zobrist zobrist;
+
+    // Larger than any real distance, and small enough that a sum of them does not overflow
+    public static final int UNREACHABLE = 1 << 20;
+
+    private static final int[][] DIRECTIONS = {{0, -1}, {0, 1}, {-1, 0}, {1, 0}};
+    private int goalCount;
     private int height;
     private int width;
 }
@@ -0,0 +1,123 @@
+package solver;
+
+import java.util.Arrays;
+
+/**
+ * The search tree as primitive arrays. A node is the index of its parent, the cell of the box
+ * that was moved and the move, 12 bytes in total, so expanded states can be collected once
+ * their children are created. A root node has no parent and holds the player cell instead of
+ * the box. Search.getPlayerPath rebuilds the moves from the nodes once a solution is found.
+ *
+ * Several threads of one search may add nodes at once, see HdaStar, so the methods are synchronized.
+ */
+final class NodePool {
+
+    NodePool()
+    {
+        allocate();
+    }
+
+    /**
+     * Adds the state, which is about to be expanded, its children point at the returned node
+     */
+    synchronized int add(State state)
+    {
+        if (size == parents.length) {
+            int capacity = size << 1;
+            parents = Arrays.copyOf(parents, capacity);
+            cells = Arrays.copyOf(cells, capacity);
+            moves = Arrays.copyOf(moves, capacity);
+        }
+        if (state.move == null) {
+            parents[size] = NO_PARENT;
+            cells[size] = state.player;
+            moves[size] = ROOT;
+        }
+        else {
+            parents[size] = state.parent;
+            cells[size] = state.box;
+            moves[size] = pack(state.move, state.boxMoves);
+        }
+        return size++;
+    }
+
+    synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Drops the nodes added since size was the given value, for depth first searches that are done with a subtree
+     */
+    synchronized void truncate(int size)
+    {
+        this.size = size;
+    }
+
+    /**
+     * Removes every node. Arrays that grew are dropped, so a pooled context does not pin the tree of the largest solve.
+     */
+    synchronized void clear()
+    {
+        if (parents.length > INITIAL_CAPACITY) {
+            allocate();
+        }
+        size = 0;
+    }
+
+    private void allocate()
+    {
+        parents = new int[INITIAL_CAPACITY];
+        cells = new int[INITIAL_CAPACITY];
+        moves = new int[INITIAL_CAPACITY];
+    }
+
+    synchronized int parent(int node)
+    {
+        return parents[node];
+    }
+
+    /**
+     *
+     * @return Cell the box was moved from, or the player cell for a root
+     */
+    synchronized int cell(int node)
+    {
+        return cells[node];
+    }
+
+    /**
+     *
+     * @return The packed move, or ROOT
+     */
+    synchronized int move(int node)
+    {
+        return moves[node];
+    }
+
+    static int pack(Direction move, int boxMoves)
+    {
+        return boxMoves << 2 | move.ordinal();
+    }
+
+    static Direction direction(int packed)
+    {
+        return DIRECTIONS[packed & 3];
+    }
+
+    static int boxMoves(int packed)
+    {
+        return packed >>> 2;
+    }
+
+    static final int NO_PARENT = -1;
+    static final int ROOT = -1;
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private int[] parents;
+    private int[] cells;
+    // Direction ordinal in the low two bits, number of steps of the box above them
+    private int[] moves;
+    private int size;
+}
@@ -0,0 +1,15 @@
+package solver;
+
+/**
+ * How a solve ended
+ */
+public enum Outcome {
+    /** A solution was found */
+    SOLVED,
+    /** The search ran out of states, no start position leads to a solution */
+    PROVEN_UNSOLVABLE,
+    /** The time, expansion or retained state limit of the budget was reached first */
+    BUDGET_EXHAUSTED,
+    /** The cancellation token was cancelled first */
+    CANCELLED
+}
@@ -0,0 +1,331 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Search for a solution with the fewest pushes, and among those one with few player moves, so that
+ * metrics taken from the solution do not depend on which solution a greedy search happens to find.
+ *
+ * Pushes the boxes forward from the start of the level in layers of equal pushes plus lower bound,
+ * lowest first, and within a layer by pushes. The lower bound changes by at most one per push, so no
+ * child lands in an earlier layer, and every solution with the fewest pushes is in the first layer
+ * that holds a solution. A configuration reached again with fewer pushes, or as many pushes and fewer
+ * moves, replaces the one found before, so player moves break ties between equal push counts. Moves
+ * are only compared for configurations and not for the exact player cell, so the tie break is close
+ * to but not always the fewest moves.
+ *
+ * The states of a layer are expanded independently, on every core when the layer is large enough,
+ * and their children are merged in the order of the layer, so the solution is the same for any
+ * number of threads. Helpers run on a pool of their own, separate from the solver executor, and a
+ * layer only takes the helper threads that are free, so concurrent solves share the cores rather
+ * than queue up behind each other.
+ */
+public final class PushOptimal {
+
+    private PushOptimal(SolverContext context)
+    {
+        this.context = context;
+        this.workers = new Worker[Solver.THREADS];
+        workers[0] = new Worker(context);
+        for (int i = 1; i < workers.length; i++) {
+            SolverContext local = SolverContext.acquire();
+            local.limit(context.limits());
+            local.share(context.nodes());
+            workers[i] = new Worker(local);
+        }
+    }
+
+    /**
+     *
+     * @param state Start state of the reverse search, with the player where it is in the level
+     * @return The moves in the form Solver.solve returns them, or null if there is no solution
+     */
+    public static ArrayList<Direction> solve(SolverContext context, State state)
+    {
+        PushOptimal search = new PushOptimal(context);
+        try {
+            return search.search(state);
+        } finally {
+            search.close();
+        }
+    }
+
+    private ArrayList<Direction> search(State state)
+    {
+        if (state.lowerBound == LowerBound.INFEASIBLE) {
+            return null;
+        }
+        /* The forward search starts with the boxes where the reverse search has to bring them */
+        State start = new State(context, Map.reverted(state.map), state.map.getGoals().clone(), state.player);
+        if (start.lowerBound == LowerBound.INFEASIBLE) {
+            return null;
+        }
+        add(new Node(start, 0, 0), Search.key(context, start));
+
+        while (!layers.isEmpty()) {
+            if (context.shouldStop()) {
+                return null;
+            }
+            ArrayList<Node> layer = new ArrayList<Node>();
+            Node best = null;
+            for (Node node : layers.pollFirstEntry().getValue()) {
+                if (node.replaced) {
+                    continue;
+                }
+                if (node.state.isFinal() && (best == null || node.moves < best.moves)) {
+                    best = node;
+                }
+                layer.add(node);
+            }
+            open -= layer.size();
+            if (best != null) {
+                return path(best.state);
+            }
+
+            expand(layer);
+            if (context.shouldStop()) {
+                return null;
+            }
+            for (Node node : layer) {
+                for (int i = 0; i < node.children.length; i++) {
+                    State child = node.children[i];
+                    add(new Node(child, node.pushes + child.boxMoves, node.childMoves[i]), node.keys[i]);
+                }
+                node.children = null;
+                node.childMoves = null;
+                node.keys = null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps the node unless its configuration has been reached with fewer pushes, or as many pushes
+     * and no more moves. A node it replaces has not been expanded yet, it is in a later layer or
+     * later in the same layer.
+     */
+    private void add(Node node, long key)
+    {
+        TranspositionTable seen = context.forwardHistory;
+        int index = seen.get(key);
+        if (index != TranspositionTable.NOT_FOUND) {
+            Node old = nodes.get(index);
+            if (old.pushes < node.pushes || old.pushes == node.pushes && old.moves <= node.moves) {
+                context.stats().duplicate();
+                return;
+            }
+            old.replaced = true;
+            open--;
+        }
+        seen.put(key, nodes.size());
+        nodes.add(node);
+        context.limits().retained();
+        long layer = (long) (node.pushes + node.state.lowerBound) << 32 | node.pushes;
+        layers.computeIfAbsent(layer, l -> new ArrayList<Node>()).add(node);
+        context.stats().open(++open);
+    }
+
+    /**
+     * Expands every node of the layer. The calling thread takes part, so the layer is done even when
+     * other solves hold every helper, and then waits until the helpers it started are through.
+     */
+    private void expand(ArrayList<Node> layer)
+    {
+        int helpers = 0;
+        if (layer.size() >= PARALLEL_LAYER) {
+            while (helpers < workers.length - 1 && FREE_HELPERS.tryAcquire()) {
+                helpers++;
+            }
+        }
+        if (helpers == 0) {
+            for (Node node : layer) {
+                workers[0].expand(node);
+            }
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(helpers);
+        for (int i = 1; i <= helpers; i++) {
+            Worker worker = workers[i];
+            HELPERS.execute(() -> {
+                try {
+                    worker.expand(layer, next);
+                } finally {
+                    FREE_HELPERS.release();
+                    finished.countDown();
+                }
+            });
+        }
+        workers[0].expand(layer, next);
+        /* The children are merged next, so wait even when interrupted, the helpers stop with the solve */
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure.get() != null) {
+            throw new RuntimeException(failure.get());
+        }
+    }
+
+    /**
+     * Solver.solve returns the moves in the direction of the reverse search, so the pushes are turned around
+     */
+    private ArrayList<Direction> path(State state)
+    {
+        ArrayList<Direction> path = new ArrayList<Direction>();
+        for (Direction move : Search.getPlayerPath(context, state)) {
+            path.add(move.opposite());
+        }
+        return path;
+    }
+
+    /**
+     * Returns the contexts of the helpers to the pool
+     */
+    private void close()
+    {
+        for (int i = 1; i < workers.length; i++) {
+            workers[i].local.release();
+        }
+    }
+
+    private static final class Node {
+
+        Node(State state, int pushes, int moves)
+        {
+            this.state = state;
+            this.pushes = pushes;
+            this.moves = moves;
+        }
+
+        final State state;
+        final int pushes;
+        // Player moves, pushes included
+        final int moves;
+        boolean replaced;
+        // Set by the expansion until the children are merged
+        State[] children;
+        int[] childMoves;
+        long[] keys;
+    }
+
+    /**
+     * Expands nodes with its own context, children, their keys and their moves are left in the node
+     */
+    private final class Worker {
+
+        Worker(SolverContext local)
+        {
+            this.local = local;
+        }
+
+        /**
+         * Takes nodes of the layer until there are none left
+         */
+        void expand(ArrayList<Node> layer, AtomicInteger next)
+        {
+            for (int i = next.getAndIncrement(); i < layer.size(); i = next.getAndIncrement()) {
+                try {
+                    expand(layer.get(i));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                    layer.get(i).children = NO_CHILDREN;
+                }
+            }
+        }
+
+        void expand(Node node)
+        {
+            children.clear();
+            if (!local.shouldStop()) {
+                Search.expand(local, node.state, children);
+            }
+            node.children = children.toArray(NO_CHILDREN);
+            node.childMoves = new int[children.size()];
+            node.keys = new long[children.size()];
+            if (children.isEmpty()) {
+                return;
+            }
+            int[] distance = walk(node.state);
+            Map map = node.state.map;
+            for (int i = 0; i < node.children.length; i++) {
+                State child = node.children[i];
+                /* The player walked to the square behind the box, then pushed it */
+                int start = child.player - child.boxMoves * map.step(child.move);
+                node.childMoves[i] = node.moves + distance[start] + child.boxMoves;
+                node.keys[i] = Search.key(local, child);
+            }
+        }
+
+        /**
+         *
+         * @return Number of steps from the player to every square it can walk to
+         */
+        private int[] walk(State state)
+        {
+            int cells = state.map.getCellCount();
+            if (distance == null || distance.length < cells) {
+                distance = new int[cells];
+                queue = new int[cells];
+            }
+            Arrays.fill(distance, 0, cells, -1);
+            int head = 0, tail = 0;
+            distance[state.player] = 0;
+            queue[tail++] = state.player;
+            while (head < tail) {
+                int cell = queue[head++];
+                for (int step : state.map.steps) {
+                    int next = cell + step;
+                    if (state.map.isFloor(next) && distance[next] < 0 && !State.isSet(state.boxes, next)) {
+                        distance[next] = distance[cell] + 1;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+            return distance;
+        }
+
+        final SolverContext local;
+        private final ArrayList<State> children = new ArrayList<State>();
+        private int[] distance;
+        private int[] queue;
+    }
+
+    // Smaller layers are expanded on the calling thread alone, handing them out costs more than it saves
+    private static final int PARALLEL_LAYER = 64;
+    private static final State[] NO_CHILDREN = new State[0];
+
+    /* One helper thread per core besides the caller, shared by all push optimal solves. A permit is
+       taken before a helper is handed to the pool, so every helper starts on a free thread */
+    private static final ExecutorService HELPERS = Executors.newFixedThreadPool(Math.max(1, Solver.THREADS - 1), runnable -> {
+        Thread thread = new Thread(runnable, "push-optimal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Semaphore FREE_HELPERS = new Semaphore(Solver.THREADS - 1);
+
+    private final SolverContext context;
+    private final Worker[] workers;
+    private final ArrayList<Node> nodes = new ArrayList<Node>();
+    // Nodes by pushes plus lower bound in the high half and pushes in the low half
+    private final TreeMap<Long, ArrayList<Node>> layers = new TreeMap<Long, ArrayList<Node>>();
+    // Nodes in the layers that have not been replaced, for the stats
+    private long open;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+}
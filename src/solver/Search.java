@@ -12,46 +12,66 @@ public final class Search {
         public ArrayList<Direction> path;
     }
 
-    public static void floodfill(State state, boolean[][] map, int startX, int startY, boolean token) {
-        /* Create stack to store nodes */
-        Stack<Position> nodes = new Stack<Position>();
-        /* Declare an positionobject to pop to from stack */
-        Position currentPosition = new Position(startX, startY);
-
-        /* Push the start position node, for the search on the stack */
-        nodes.push(currentPosition);
-
-        /* Search for a path to the wanted goal */
-        while (!nodes.empty()) {
-            currentPosition = nodes.pop();
-            int x = currentPosition.x;
-            int y = currentPosition.y;
-            map[x][y] = token;
+    /**
+     * Flood fills the region the player can walk to into a bitset
+     * @param region Cleared bitset over the cells of the map, receives the region
+     * @return The lowest cell index of the region. Every player position in the same region
+     *         gives the same cell, so it identifies the region for duplicate detection.
+     */
+    public static int flood(SolverContext context, State state, long[] region) {
+        long start = System.nanoTime();
+        Bitboard bitboard = state.map.bitboard();
+        if (bitboard != null) {
+            int lowest = bitboard.flood(state.boxes, state.player, region);
+            context.stats().reach(System.nanoTime() - start);
+            return lowest;
+        }
+        int[] steps = state.map.steps;
+        int[] stack = context.stack(state.map.getCellCount());
+        int size = 0;
+        int min = state.player;
+
+        stack[size++] = state.player;
+        State.set(region, state.player);
+        while (size > 0) {
+            int cell = stack[--size];
+            if (cell < min) {
+                min = cell;
+            }
 
             /* Create child nodes */
-            if (map[x + 1][y] != token && state.isFree(x + 1, y)) {
-                nodes.add(new Position(x + 1, y));
-            }
-            if (map[x - 1][y] != token && state.isFree(x - 1, y)) {
-                nodes.add(new Position(x - 1, y));
-            }
-            if (map[x][y + 1] != token && state.isFree(x, y + 1)) {
-                nodes.add(new Position(x, y + 1));
-            }
-            if (map[x][y - 1] != token && state.isFree(x, y - 1)) {
-                nodes.add(new Position(x, y - 1));
+            for (int step : steps) {
+                int next = cell + step;
+                if (!State.isSet(region, next) && !State.isSet(state.boxes, next) && state.map.isFloor(next)) {
+                    State.set(region, next);
+                    stack[size++] = next;
+                }
             }
         }
+        context.stats().reach(System.nanoTime() - start);
+        return min;
     }
 
-    public static Result bfs(State state, SearchTest test, int startX, int startY) {
+    /**
+     *
+     * @return The lowest cell of the player region, from the expansion that created the state if it
+     *         worked it out, or from a flood of its own
+     */
+    public static int normalizedPlayer(SolverContext context, State state) {
+        if (state.region != State.UNKNOWN_REGION) {
+            return state.region;
+        }
+        return flood(context, state, context.regionScratch(state.boxes.length));
+    }
+
+    public static Result bfs(SolverContext context, State state, SearchTest test, int startX, int startY) {
         /* Create stack to store nodes */
         ArrayDeque<Position> nodes = new ArrayDeque<Position>();
         /* Create integers that is needed */
         int width = state.getWidth();
         int height = state.getHeight();
         /* Create 2D array to store visited positions */
-        VisitedNodes visitedPositions = VisitedNodes.createArray(width, height);
+        VisitedNodes visitedPositions = context.visitedNodes(width, height);
         /* Declare an positionobject to pop to from stack */
         Position currentPosition = new Position(startX, startY);
 
@@ -109,18 +129,24 @@ public final class Search {
         }
     }
 
-    public static State findBoxPath(State state, int playerStartX, int playerStartY) {
+    public static State findBoxPath(SolverContext context, State state, int playerStartX, int playerStartY) {
         /* Create stack to store nodes */
         PriorityQueue<State> nodes = new PriorityQueue<State>();
+        ArrayList<State> children = new ArrayList<State>();
         /* Declare an positionobject to pop to from stack */
         State currentState = state;
-        currentState.player = new Position(playerStartX, playerStartY);
+        currentState.player = state.map.index(playerStartX, playerStartY);
+
+        /* No matching of boxes to goals, nothing to search */
+        if (currentState.lowerBound == LowerBound.INFEASIBLE) {
+            return null;
+        }
 
         /* Push the start position node, for the search on the stack */
         nodes.add(currentState);
 
         /* Search for a path to the wanted goal */
-        while (!nodes.isEmpty()) {
+        while (!nodes.isEmpty() && !context.shouldStop()) {
             try {
                 currentState = nodes.remove();
 
@@ -128,26 +154,22 @@ public final class Search {
                     return currentState;
                 }
 
-                /* Create child nodes */
-                for (int boxIndex = 0; boxIndex < currentState.boxes.size(); ++boxIndex) {
-                    Position box = currentState.boxes.get(boxIndex);
-                    int x = box.x;
-                    int y = box.y;
-
-                    testBoxAddPosition(currentState, nodes, currentState.player, x, y - 1, x, y - 2, Direction.UP,
-                            boxIndex);
-                    testBoxAddPosition(currentState, nodes, currentState.player, x, y + 1, x, y + 2, Direction.DOWN,
-                            boxIndex);
-                    testBoxAddPosition(currentState, nodes, currentState.player, x - 1, y, x - 2, y, Direction.LEFT,
-                            boxIndex);
-                    testBoxAddPosition(currentState, nodes, currentState.player, x + 1, y, x + 2, y, Direction.RIGHT,
-                            boxIndex);
-
+                children.clear();
+                expand(context, currentState, children);
+                for (State child : children) {
+                    if (!inHistory(context, child)) {
+                        context.limits().retained();
+                        nodes.add(child);
+                    }
+                    else {
+                        context.stats().duplicate();
+                    }
                 }
+                context.stats().open(nodes.size());
             } catch (OutOfMemoryError e) {
                 // When memory is low, clear the history to free space and invoke garbage
                 // collection.
-                history.clear();
+                context.clearHistory();
                 System.gc();
                 // Optionally log the event for debugging purposes.
             }
@@ -156,84 +178,264 @@ public final class Search {
         return null;
     }
 
-    private static final Comparator<Position> comparePoints = new Comparator<Position>() {
-        @Override
-        public int compare(Position o1, Position o2) {
-            if (o1.x == o2.x) {
-                return o1.y - o2.y;
-            } else {
-                return o1.x - o2.x;
-            }
-        }
-    };
-
-    private static void testBoxAddPosition(State state, Queue<State> nodes, Position player, int boxX, int boxY,
-            int boxX2, int boxY2, Direction move, int index) {
-        if (state.isFree(boxX, boxY) && state.isFree(boxX2, boxY2)) {
-            Position boxPos = state.boxes.get(index);
-            Result result = Search.bfs(state, new IsAtPosition(move, boxPos.x, boxPos.y), player.x, player.y);
-            if (result != null) {
-                ArrayList<Position> boxes = new ArrayList<Position>(state.boxes);
-                boxes.set(index, new Position(boxX, boxY));
-                // Sort the boxes with a stable sort since we want that two configurations of
-                // boxes which are permutations
-                // of each other are equal
-                Collections.sort(boxes, comparePoints);
-                State possibleStep = new State(state.map, new Position(boxX2, boxY2), boxes, result.path, state);
-                Collections.reverse(possibleStep.playerPath);
-                possibleStep.playerPath.add(move);
-
-                if (!inHistory(possibleStep)) {
-                    nodes.add(possibleStep);
+    /**
+     * Generates the box moves of the state which survive the dead square, deadlock and lower bound
+     * checks, without looking at duplicates. Shared by every search engine so they all see the
+     * same successors. The state is added to the node pool of the context, its children point at it.
+     * @param children Receives the new states
+     */
+    static void expand(SolverContext context, State state, Collection<State> children) {
+        context.limits().expanded();
+        /* Bounds of the children are repaired from the matching of this state */
+        context.lowerBound().solve(state.map, state.boxes);
+
+        /* One flood of the player region answers where the player can get to for every move */
+        long[] reach = context.reachScratch(state.boxes.length);
+        int lowest = flood(context, state, reach);
+        int node = context.nodes().add(state);
+        long start = System.nanoTime();
+        int generated = 0;
+        for (int box = state.nextBox(0); box >= 0; box = state.nextBox(box + 1)) {
+            for (Direction move : MOVES) {
+                State child = tryBoxMove(context, state, node, reach, lowest, box, move);
+                if (child != null) {
+                    children.add(child);
+                    generated++;
                 }
             }
         }
+        context.stats().generate(System.nanoTime() - start);
+        context.stats().generated(generated);
     }
 
-    public static ArrayList<Direction> getPlayerPath(State current) {
-        if (current.parent == null) {
-            return current.playerPath;
-        } else {
-            ArrayList<Direction> tempPath = getPlayerPath(current.parent);
-            if (tempPath == null) {
-                tempPath = new ArrayList<Direction>();
-                tempPath.add(current.playerPath.get(current.playerPath.size() - 1));
-            } else {
-                tempPath.addAll(current.playerPath);
+    /**
+     * Tries to move the box one step in the direction, or through the tunnel it enters. To pull, the
+     * player has to stand on the square the box moves onto and have room to step back, so the move is
+     * legal if that square is in the player's region and the one behind it is free. To push, the player
+     * has to reach the square behind the box and the square in front of it has to be free. The walk to
+     * the box is not stored, see getPlayerPath.
+     * @param lowest Lowest cell of the player region in reach
+     * @return The new state, or null if the move is illegal or leads to a deadlock
+     */
+    private static State tryBoxMove(SolverContext context, State state, int node, long[] reach, int lowest, int box,
+            Direction move) {
+        Map map = state.map;
+        int step = map.step(move);
+        int to = box + step;
+        int player;
+        if (map.isPulling()) {
+            player = to + step;
+            if (!State.isSet(reach, to) || !map.isFloor(player) || State.isSet(state.boxes, player)) {
+                return null;
+            }
+        }
+        else {
+            player = box;
+            if (!map.isFloor(to) || State.isSet(state.boxes, to) || !map.isFloor(box - step)
+                    || !State.isSet(reach, box - step)) {
+                return null;
             }
-            return tempPath;
         }
+        /* A box in a tunnel has to go on through it, so move it on without stopping in between */
+        int moves = 1;
+        while (map.isTunnel(to, move) && !map.isGoal(to) && canSlide(state, to, move)) {
+            to += step;
+            player += step;
+            moves++;
+        }
+        /* Reject moves onto dead squares before paying for the new state */
+        if (map.isDead(to) || isDeadlock(context, state, box, to, player)) {
+            context.stats().deadlockPruned();
+            return null;
+        }
+        /* A move that leaves no matching of boxes to goals is a deadlock as well */
+        int lowerBound = context.lowerBound().move(box, to);
+        if (lowerBound == LowerBound.INFEASIBLE) {
+            context.stats().deadlockPruned();
+            return null;
+        }
+        // The bitset is indexed by cell, so two configurations of boxes which are
+        // permutations of each other are equal without any sorting
+        long[] boxes = state.boxes.clone();
+        State.clear(boxes, box);
+        State.set(boxes, to);
+        long boxHash = map.getZobrist().move(state.boxHash, box, to);
+        State child = new State(state, node, box, boxes, boxHash, player, move, moves, lowerBound);
+        child.region = region(state, reach, lowest, box, to, moves);
+        return child;
     }
 
-    private static boolean inHistory(State state) {
-        try {
-            Position p = state.player;
-            int x = p.x;
-            int y = p.y;
-
-            boolean[][] maybePlayerPositions = history.get(state.boxes);
-            if (maybePlayerPositions == null) {
-                maybePlayerPositions = new boolean[state.getWidth()][state.getHeight()];
-            } else {
-                if (maybePlayerPositions[x][y]) {
-                    return true;
-                }
+    /**
+     * The normalized player cell of a child, worked out from the region of its parent when the move
+     * only changes that region next to the box: the square the box leaves joins the region if it
+     * touches it, and the square the box moves onto leaves it without cutting it in two.
+     * @return The lowest cell of the child's region, or State.UNKNOWN_REGION if it needs a flood of its own
+     */
+    private static int region(State state, long[] reach, int lowest, int from, int to, int boxMoves) {
+        if (boxMoves > 1 || State.isSet(reach, to) && (to == lowest || cutsRegion(state.map, reach, to))) {
+            return State.UNKNOWN_REGION;
+        }
+        Map map = state.map;
+        boolean joins = false;
+        for (int step : map.steps) {
+            int next = from + step;
+            if (next == to || !map.isFloor(next) || State.isSet(state.boxes, next)) {
+                continue;
+            }
+            if (!State.isSet(reach, next)) {
+                /* Another region would merge into the child's region */
+                return State.UNKNOWN_REGION;
             }
-            floodfill(state, maybePlayerPositions, x, y, true);
-            history.put(state.boxes, maybePlayerPositions);
+            joins = true;
+        }
+        return joins ? Math.min(lowest, from) : lowest;
+    }
+
+    /**
+     * Whether taking the cell out of the region may split it. The neighbours of the cell in the region
+     * stay connected if they are connected through the eight cells around it, which is the case when
+     * those cells hold at most one run of region cells that touches a neighbour.
+     */
+    private static boolean cutsRegion(Map map, long[] region, int cell) {
+        int width = map.getWidth();
+        int[] ring = {-width, -width + 1, 1, width + 1, width, width - 1, -1, -width - 1};
+        /* Start after a cell outside the region, so no run wraps around */
+        int start = 0;
+        while (start < ring.length && State.isSet(region, cell + ring[start])) {
+            start++;
+        }
+        if (start == ring.length) {
             return false;
+        }
+        int runs = 0;
+        boolean touches = false;
+        for (int i = start + 1; i <= start + ring.length; i++) {
+            int position = i % ring.length;
+            if (!State.isSet(region, cell + ring[position])) {
+                touches = false;
+            }
+            /* Even positions are the neighbours, odd ones the corners between them */
+            else if (position % 2 == 0 && !touches) {
+                touches = true;
+                runs++;
+            }
+        }
+        return runs > 1;
+    }
+
+    /**
+     * Whether the box on a tunnel square can be moved on. A pushed box leaves the player's side, so
+     * moving it on only frees the square it was on. A pulled box moves into the player's side, so it
+     * is only moved on if the next square is a tunnel square as well, where it takes nothing away
+     * from the player but the way to the box.
+     */
+    private static boolean canSlide(State state, int box, Direction move) {
+        Map map = state.map;
+        int step = map.step(move);
+        int to = box + step;
+        if (!map.isPulling()) {
+            return map.isFloor(to) && !State.isSet(state.boxes, to);
+        }
+        return map.isTunnel(to, move) && map.isFloor(to + step) && !State.isSet(state.boxes, to + step);
+    }
+
+    /**
+     * Tries the move on a scratch copy of the boxes and checks it for freeze and diagonal deadlocks
+     */
+    private static boolean isDeadlock(SolverContext context, State state, int from, int to, int player) {
+        long[] boxes = context.boxScratch(state.boxes);
+        State.clear(boxes, from);
+        State.set(boxes, to);
+        return Deadlocks.isDeadlock(context, state.map, boxes, to, player);
+    }
+
+    /**
+     * Rebuilds the moves from the start of the search to the state. The node pool only remembers the
+     * box moves, so the boxes are moved back to where they started and the moves are played again,
+     * with a breadth first search for each walk between them, once for each move of the solution
+     * instead of once for each move of the search.
+     * For pulls the walk to the first move is left out, played forwards it is the walk after the
+     * last push, which is not needed once the boxes are on their goals.
+     */
+    public static ArrayList<Direction> getPlayerPath(SolverContext context, State current) {
+        long begin = System.nanoTime();
+        NodePool nodes = context.nodes();
+        Map map = current.map;
+        /* Box moves from the last to the first, the state itself is not in the pool unless it was expanded */
+        int[] cells = new int[16], moves = new int[16];
+        int count = 0, player = current.player;
+        int cell = current.box, move = current.move == null ? NodePool.ROOT : NodePool.pack(current.move, current.boxMoves);
+        for (int node = current.parent; ; node = nodes.parent(node)) {
+            if (move == NodePool.ROOT) {
+                player = cell;
+                break;
+            }
+            if (count == cells.length) {
+                cells = Arrays.copyOf(cells, count << 1);
+                moves = Arrays.copyOf(moves, count << 1);
+            }
+            cells[count] = cell;
+            moves[count++] = move;
+            cell = nodes.cell(node);
+            move = nodes.move(node);
+        }
+
+        /* Back to the start, undoing the moves from the last */
+        State replay = new State(current, player);
+        replay.boxes = current.boxes.clone();
+        for (int i = 0; i < count; i++) {
+            State.clear(replay.boxes, cells[i] + NodePool.boxMoves(moves[i]) * map.step(NodePool.direction(moves[i])));
+            State.set(replay.boxes, cells[i]);
+        }
+
+        ArrayList<Direction> path = new ArrayList<Direction>();
+        for (int i = count - 1; i >= 0; i--) {
+            Direction direction = NodePool.direction(moves[i]);
+            int step = map.step(direction), box = cells[i], to = box + NodePool.boxMoves(moves[i]) * step;
+            if (i < count - 1 || !map.isPulling()) {
+                /* The player walks next to the box, on the side it moves to for a pull and behind it for a push */
+                int start = map.isPulling() ? box + step : box - step;
+                Result walk = bfs(context, replay, new IsAtPosition(map.cellX(start), map.cellY(start)),
+                        map.cellX(replay.player), map.cellY(replay.player));
+                Collections.reverse(walk.path);
+                path.addAll(walk.path);
+            }
+            for (int j = 0; j < NodePool.boxMoves(moves[i]); j++) {
+                path.add(direction);
+            }
+            State.clear(replay.boxes, box);
+            State.set(replay.boxes, to);
+            replay.player = map.isPulling() ? to + step : to - step;
+        }
+        context.stats().path(System.nanoTime() - begin);
+        return path;
+    }
+
+    /**
+     * A state is a duplicate if the same boxes have been seen with the player anywhere in
+     * the same region, so the key combines the box hash with the normalized player cell
+     */
+    private static boolean inHistory(SolverContext context, State state) {
+        try {
+            return !context.visit(key(context, state));
         } catch (OutOfMemoryError e) {
             // If an OutOfMemoryError occurs, clear history and force garbage collection
-            history.clear();
+            context.clearHistory();
             System.gc();
             return false;
         }
     }
 
-    // Map which stores all player positions which has been observed for a specific
-    // box configuration
-    // The boxes are sorted first on the x-axis and then on they y-axis with a
-    // stable sort so that it can be used as a key
-    private static HashMap<ArrayList<Position>, boolean[][]> history = new HashMap<ArrayList<Position>, boolean[][]>();
+    /**
+     *
+     * @return Key of the box configuration and player region of the state for the transposition tables
+     */
+    static long key(SolverContext context, State state) {
+        return state.boxHash ^ state.map.getZobrist().player(normalizedPlayer(context, state));
+    }
+
+    private static final Direction[] MOVES = Direction.values();
+
+    public static final int DEFAULT_HISTORY_CAPACITY = 1 << 16;
 
 }
@@ -0,0 +1,58 @@
+package solver;
+
+/**
+ * Duplicate table shared by the concurrent best first searches from the start positions of one solve.
+ * Every key keeps the lowest index of the searches that reached it, and a search skips what a search with a
+ * lower index has reached. One after another, the later search would skip those states because the earlier
+ * one failed and saw them all. Run together, the earlier one either fails too, so the states were dead ends,
+ * or wins, so the later search does not matter. A failed start therefore still prunes the others, and the
+ * winner is the same as trying the start positions one by one.
+ * The table is split into stripes by the high bits of the key, each behind its own lock, the low bits pick
+ * the slot within a stripe.
+ */
+final class SharedHistory {
+
+    SharedHistory(int capacity)
+    {
+        stripes = new TranspositionTable[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new TranspositionTable(Math.max(1, capacity / STRIPES), TranspositionTable.Policy.GROW);
+        }
+    }
+
+    /**
+     *
+     * @param search Index of the start position of the search
+     * @return True if neither this search nor one with a lower index has reached the state before
+     */
+    boolean visit(long key, int search)
+    {
+        TranspositionTable stripe = stripes[(int) (key >>> STRIPE_SHIFT)];
+        synchronized (stripe) {
+            int seen = stripe.get(key);
+            if (seen != TranspositionTable.NOT_FOUND && seen <= search) {
+                return false;
+            }
+            stripe.put(key, search);
+            return true;
+        }
+    }
+
+    /**
+     * Frees the memory of the table when the heap runs out, the searches then only lose pruning
+     */
+    void clear()
+    {
+        for (TranspositionTable stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int STRIPE_SHIFT = Long.SIZE - STRIPE_BITS;
+
+    private final TranspositionTable[] stripes;
+}
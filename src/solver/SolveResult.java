@@ -0,0 +1,26 @@
+package solver;
+
+import java.util.ArrayList;
+
+/**
+ * What a solve returns, the outcome, for SOLVED the moves, and what the solve cost
+ */
+public final class SolveResult {
+
+    public SolveResult(Outcome outcome, ArrayList<Direction> path, SolverStats stats)
+    {
+        this.outcome = outcome;
+        this.path = path;
+        this.stats = stats;
+    }
+
+    public boolean isSolved()
+    {
+        return outcome == Outcome.SOLVED;
+    }
+
+    public final Outcome outcome;
+    // Null unless the outcome is SOLVED
+    public final ArrayList<Direction> path;
+    public final SolverStats stats;
+}
@@ -5,46 +5,297 @@ package solver;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class Solver {
 
-    public static Iterable<Direction> solve(State state)
+    /**
+     * Search used to find the box moves
+     */
+    public enum Engine {
+        /** Best first on the lower bound with a duplicate table of every state seen, fast but memory grows with the search */
+        BEST_FIRST,
+        /** Iterative deepening A*, memory bounded by the fixed size table of the context, see IdaStar */
+        IDA_STAR,
+        /** Best first from both ends of the level until the two halves meet, see Bidirectional */
+        BIDIRECTIONAL,
+        /** Best first spread over a worker thread per core by state hash, see HdaStar */
+        HDA_STAR,
+        /** Breadth first with the duplicate table in memory mapped files, for levels that exceed the heap, see ExternalSearch */
+        EXTERNAL,
+        /** Fewest pushes, ties broken on player moves, slower but the solution does not depend on search order, see PushOptimal */
+        PUSH_OPTIMAL
+    }
+
+    /**
+     * Which start position wins when the searches from several of them succeed
+     */
+    public enum Winner {
+        /** The first in the order of possibleStartPositions, the same answer as trying them one by one */
+        LOWEST_INDEX,
+        /** Whichever finishes first, faster but the answer can change between runs */
+        FIRST_FOUND
+    }
+
+    public static Iterable<Direction> solve(SolverContext context, State state)
     {
-        State boxToGoal;
-        int px = state.player.x;
-        int py = state.player.y;
-        ArrayList<Position> possiblePlayerPositions = possibleStartPositions(state);
-        for (Position player : possiblePlayerPositions)
-        {
-            boxToGoal = Search.findBoxPath(state, player.x, player.y);
-            if (boxToGoal != null){
-                Search.Result result = Search.bfs(boxToGoal, new IsAtPosition(px, py), boxToGoal.player.x, boxToGoal.player.y);
-                if(result != null){
-                    Collections.reverse(result.path);
-                    ArrayList<Direction> toReturn = Search.getPlayerPath(boxToGoal);
-                    toReturn.addAll(result.path);
-                    Collections.reverse(toReturn);
-                    return toReturn;
+        return solve(context, state, Engine.BEST_FIRST);
+    }
+
+    public static Iterable<Direction> solve(SolverContext context, State state, Engine engine)
+    {
+        return solve(context, state, engine, Winner.LOWEST_INDEX);
+    }
+
+    public static Iterable<Direction> solve(SolverContext context, State state, Engine engine, Winner winner)
+    {
+        return solve(context, state, engine, winner, Budget.UNLIMITED, new CancellationToken()).path;
+    }
+
+    /**
+     * Solves within the budget, the result says whether the level was solved, proven unsolvable,
+     * or whether the search had to stop first, and carries the stats of the solve. The context is reset first, so nothing a previous
+     * solve left in its tables, from another level or an unfinished search, prunes this one.
+     */
+    public static SolveResult solve(SolverContext context, State state, Engine engine, Winner winner, Budget budget,
+            CancellationToken token)
+    {
+        Limits limits = new Limits(budget, token);
+        context.reset();
+        context.limit(limits);
+        try {
+            ArrayList<Direction> path = search(context, state, engine, winner);
+            SolverStats stats = limits.finish(state.boxes.length);
+            if (path != null) {
+                return new SolveResult(Outcome.SOLVED, path, stats);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return new SolveResult(Outcome.CANCELLED, null, stats);
+            }
+            Outcome stopped = limits.stopped();
+            return new SolveResult(stopped != null ? stopped : Outcome.PROVEN_UNSOLVABLE, null, stats);
+        } finally {
+            context.limit(Limits.NONE);
+        }
+    }
+
+    /**
+     * The searches from the different start positions run concurrently on a shared executor, each with
+     * its own context from the pool. Best first searches share one duplicate table, in which a search skips
+     * the states of the searches before it, so a failed start position still prunes the others, see
+     * SharedHistory. Once the winner is known the others are cancelled through their contexts and stop at
+     * their next expansion. Whenever none has finished, the calling thread runs the next one that has not
+     * started, so a solve never waits on an executor that is busy with other solves.
+     * With a single core they run one after another on the given context instead, sharing its history,
+     * which prunes everything a failed start position has already seen. So do the searches of the
+     * HDA* and external engines, which keep their tables between them and, for HDA*, use every core
+     * for each of them.
+     * @param context Used when the searches are not run concurrently, and for the bidirectional and push optimal engines
+     */
+    private static ArrayList<Direction> search(SolverContext context, State state, Engine engine, Winner winner)
+    {
+        ArrayList<Position> starts = possibleStartPositions(state);
+        if (engine == Engine.BIDIRECTIONAL) {
+            return Bidirectional.solve(context, state, starts);
+        }
+        if (engine == Engine.PUSH_OPTIMAL) {
+            return PushOptimal.solve(context, state);
+        }
+        if (engine == Engine.HDA_STAR || engine == Engine.EXTERNAL) {
+            try (BoxSearch search = engine == Engine.HDA_STAR ? new HdaStar(context) : new ExternalSearch(context)) {
+                for (Position start : starts) {
+                    ArrayList<Direction> path = solveFrom(context, new State(state, state.map.index(start.x, start.y)),
+                            engine, search, state.player);
+                    if (path != null) {
+                        return path;
+                    }
+                }
+            }
+            return null;
+        }
+        if (starts.size() <= 1 || THREADS == 1) {
+            for (Position start : starts) {
+                ArrayList<Direction> path = solveFrom(context, new State(state, state.map.index(start.x, start.y)),
+                        engine, null, state.player);
+                if (path != null) {
+                    return path;
                 }
-                else
+            }
+            return null;
+        }
+
+        SharedHistory shared = engine == Engine.BEST_FIRST ? new SharedHistory(Search.DEFAULT_HISTORY_CAPACITY) : null;
+        ArrayList<Attempt> attempts = new ArrayList<Attempt>();
+        LinkedBlockingQueue<Attempt> completed = new LinkedBlockingQueue<Attempt>();
+        for (Position start : starts) {
+            Attempt attempt = new Attempt(new State(state, state.map.index(start.x, start.y)), engine, state.player,
+                    context.limits(), shared, attempts.size());
+            attempts.add(attempt);
+            attempt.future = new FutureTask<Attempt>(attempt) {
+                @Override
+                protected void done()
                 {
-                    if (SolverMain.DEBUG)
-                    {
-                        System.err.println("No path back");
+                    completed.add(attempt);
+                }
+            };
+            EXECUTOR.execute(attempt.future);
+        }
+
+        /* Index of the lowest attempt that has not failed yet, and of the next one the calling thread may run */
+        int lowest = 0, own = 0;
+        try {
+            for (int finished = 0; finished < attempts.size(); finished++) {
+                Attempt done = completed.poll();
+                while (done == null && own < attempts.size()) {
+                    /* Does nothing if the executor has started it already */
+                    attempts.get(own++).future.run();
+                    done = completed.poll();
+                }
+                if (done == null) {
+                    done = completed.take();
+                }
+                done.future.get();
+                if (winner == Winner.FIRST_FOUND && done.path != null) {
+                    return done.path;
+                }
+                while (lowest < attempts.size() && attempts.get(lowest).future.isDone()) {
+                    Attempt attempt = attempts.get(lowest).future.get();
+                    if (attempt.path != null) {
+                        return attempt.path;
                     }
+                    lowest++;
                 }
             }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Attempt attempt : attempts) {
+                attempt.cancel();
+            }
+        }
+    }
+
+    /**
+     *
+     * @param root Start state of the reverse search with the player on the start position
+     * @param search The open engine for the engines that keep one between start positions, otherwise null
+     * @param player Cell of the player in the level, where the solution has to start
+     * @return The moves, or null if there is no solution from the start position
+     */
+    private static ArrayList<Direction> solveFrom(SolverContext context, State root, Engine engine, BoxSearch search,
+            int player)
+    {
+        int px = root.map.cellX(player);
+        int py = root.map.cellY(player);
+        Position start = root.getPlayer();
+        State boxToGoal;
+        if (search != null) {
+            boxToGoal = search.findBoxPath(root, start.x, start.y);
+        }
+        else if (engine == Engine.IDA_STAR) {
+            boxToGoal = IdaStar.findBoxPath(context, root, start.x, start.y);
+        }
+        else {
+            boxToGoal = Search.findBoxPath(context, root, start.x, start.y);
+        }
+        if (boxToGoal != null){
+            Position end = boxToGoal.getPlayer();
+            Search.Result result = Search.bfs(context, boxToGoal, new IsAtPosition(px, py), end.x, end.y);
+            if(result != null){
+                Collections.reverse(result.path);
+                ArrayList<Direction> toReturn = Search.getPlayerPath(context, boxToGoal);
+                toReturn.addAll(result.path);
+                Collections.reverse(toReturn);
+                return toReturn;
+            }
             else
             {
                 if (SolverMain.DEBUG)
                 {
-                    System.err.println("No solution" + state.playerEndPos);
+                    System.err.println("No path back");
                 }
             }
         }
+        else
+        {
+            if (SolverMain.DEBUG)
+            {
+                System.err.println("No solution from " + start);
+            }
+        }
         return null;
     }
 
+    /**
+     * The search from one start position, run on the executor or the solving thread with a context from the pool
+     */
+    private static final class Attempt implements Callable<Attempt> {
+
+        Attempt(State root, Engine engine, int player, Limits limits, SharedHistory shared, int index)
+        {
+            this.limits = limits;
+            this.shared = shared;
+            this.index = index;
+            this.root = root;
+            this.engine = engine;
+            this.player = player;
+        }
+
+        public Attempt call()
+        {
+            SolverContext context = SolverContext.acquire();
+            try {
+                context.limit(limits);
+                if (shared != null) {
+                    context.share(shared, index);
+                }
+                this.context = context;
+                if (!cancelled) {
+                    path = solveFrom(context, root, engine, null, player);
+                }
+                return this;
+            } finally {
+                this.context = null;
+                context.release();
+            }
+        }
+
+        /**
+         * Stops the search if it is running and keeps it from starting otherwise
+         */
+        void cancel()
+        {
+            cancelled = true;
+            future.cancel(false);
+            SolverContext running = context;
+            if (running != null) {
+                running.cancel();
+            }
+        }
+
+        final State root;
+        final Engine engine;
+        final Limits limits;
+        final int player;
+        /* Duplicate table of all the attempts of the solve, null for the engines that keep their own */
+        final SharedHistory shared;
+        final int index;
+        FutureTask<Attempt> future;
+        ArrayList<Direction> path;
+        /* Both are volatile so that cancel and call always see at least one of each other's writes */
+        private volatile boolean cancelled;
+        private volatile SolverContext context;
+    }
+
     /**
      * Since the game is played in reverse
      * @param state
@@ -53,7 +304,8 @@ public class Solver {
     private static ArrayList<Position> possibleStartPositions(State state){
         ArrayList<Position> positions = new ArrayList<Position>();
         
-        for(Position box : state.boxes){
+        for(int cell = state.nextBox(0); cell >= 0; cell = state.nextBox(cell + 1)){
+            Position box = new Position(state.map.cellX(cell), state.map.cellY(cell));
             if(state.isFree(box.x+1,box.y)){
                 positions.add(new Position(box.x+1,box.y));
             }
@@ -69,4 +321,12 @@ public class Solver {
         }
         return positions;
     }
+
+    /* Bounded by the number of cores, shared by all solves. Daemon threads, so an idle pool never keeps the JVM alive */
+    static final int THREADS = Runtime.getRuntime().availableProcessors();
+    static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "solver");
+        thread.setDaemon(true);
+        return thread;
+    });
 }
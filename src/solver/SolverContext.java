@@ -0,0 +1,312 @@
+package solver;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Owns every table a solve writes to, so that solves never share mutable state.
+ * A context must only be used by one solve at a time, different contexts can be used
+ * from different threads. Contexts are expensive to warm up, so finished ones go back
+ * to a pool with {@link #release()} and are handed out again, reset, by {@link #acquire()}.
+ */
+public final class SolverContext {
+
+    public SolverContext()
+    {
+        this(Search.DEFAULT_HISTORY_CAPACITY, TranspositionTable.Policy.GROW, IdaStar.DEFAULT_TABLE_CAPACITY);
+    }
+
+    /**
+     *
+     * @param historyCapacity Initial number of slots of the duplicate table, rounded up to a power of two
+     * @param historyPolicy Whether the duplicate table grows or replaces entries once it is full
+     */
+    public SolverContext(int historyCapacity, TranspositionTable.Policy historyPolicy)
+    {
+        this(historyCapacity, historyPolicy, IdaStar.DEFAULT_TABLE_CAPACITY);
+    }
+
+    /**
+     *
+     * @param boundedCapacity Number of slots of the fixed size table used by the IDA* engine,
+     *                        which never grows, so it caps the memory of that engine
+     */
+    public SolverContext(int historyCapacity, TranspositionTable.Policy historyPolicy, int boundedCapacity)
+    {
+        this.historyCapacity = historyCapacity;
+        this.historyPolicy = historyPolicy;
+        this.history = new TranspositionTable(historyCapacity, historyPolicy);
+        this.forwardHistory = new TranspositionTable(historyCapacity, historyPolicy);
+        this.boundedCapacity = boundedCapacity;
+    }
+
+    /**
+     *
+     * @return A reset context from the pool, or a new one if the pool is empty
+     */
+    public static SolverContext acquire()
+    {
+        SolverContext context = POOL.poll();
+        if (context == null) {
+            return new SolverContext();
+        }
+        context.reset();
+        return context;
+    }
+
+    /**
+     * Returns the context to the pool, it must not be used afterwards
+     */
+    public void release()
+    {
+        POOL.offer(this);
+    }
+
+    /**
+     * Forgets everything from previous solves. A history table that grew past its
+     * initial capacity is dropped rather than cleared so the pool does not pin the
+     * memory of the largest solve it has seen.
+     */
+    public void reset()
+    {
+        cancelled = false;
+        limits = Limits.NONE;
+        shared = null;
+        history = reset(history);
+        forwardHistory = reset(forwardHistory);
+        nodes = ownNodes;
+        nodes.clear();
+    }
+
+    private TranspositionTable reset(TranspositionTable table)
+    {
+        if (table.capacity() > historyCapacity) {
+            return new TranspositionTable(historyCapacity, historyPolicy);
+        }
+        table.clear();
+        return table;
+    }
+
+    /**
+     * Makes the best first search on this context use the duplicate table of a solve that searches several
+     * start positions at once instead of its own history
+     * @param search Index of the start position the context searches from
+     */
+    void share(SharedHistory shared, int search)
+    {
+        this.shared = shared;
+        this.sharedSearch = search;
+    }
+
+    /**
+     *
+     * @return True if the state has not been seen, and records it in the shared table or the history
+     */
+    boolean visit(long key)
+    {
+        return shared != null ? shared.visit(key, sharedSearch) : history.add(key);
+    }
+
+    /**
+     * Forgets the states seen when the heap runs out
+     */
+    void clearHistory()
+    {
+        history.clear();
+        if (shared != null) {
+            shared.clear();
+        }
+    }
+
+    /**
+     * Asks the search running on this context to give up, it returns no solution at its next expansion
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Counts the solve this context works on against the limits, which may be shared with other contexts
+     */
+    void limit(Limits limits)
+    {
+        this.limits = limits;
+    }
+
+    Limits limits()
+    {
+        return limits;
+    }
+
+    /**
+     *
+     * @return The stats of the solve this context works on
+     */
+    SolverStats stats()
+    {
+        return limits.stats();
+    }
+
+    /**
+     *
+     * @return The search tree of the solve, see NodePool
+     */
+    NodePool nodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Adds the nodes this context expands to the tree of another context, for the helper threads of a search
+     */
+    void share(NodePool nodes)
+    {
+        this.nodes = nodes;
+    }
+
+    /**
+     *
+     * @return True if the search should give up, because it was cancelled or its limits are exceeded
+     */
+    boolean shouldStop()
+    {
+        return cancelled || limits.exceeded();
+    }
+
+    /**
+     *
+     * @return The visited array for a new breadth first search on a map of the given size
+     */
+    VisitedNodes visitedNodes(int width, int height)
+    {
+        if (visitedNodes == null || !visitedNodes.fits(width, height))
+        {
+            visitedNodes = new VisitedNodes(width, height);
+        }
+        visitedNodes.next();
+        return visitedNodes;
+    }
+
+    /**
+     *
+     * @return The fixed size replacing table of the IDA* engine, allocated on first use
+     */
+    TranspositionTable boundedTable()
+    {
+        if (boundedTable == null)
+        {
+            boundedTable = new TranspositionTable(boundedCapacity, TranspositionTable.Policy.REPLACE);
+        }
+        return boundedTable;
+    }
+
+    LowerBound lowerBound()
+    {
+        return lowerBound;
+    }
+
+    /**
+     *
+     * @return A cleared bitset of at least the given number of words for the deadlock checks,
+     *         which leave it cleared again when they return
+     */
+    long[] deadlockScratch(int words)
+    {
+        if (deadlockScratch == null || deadlockScratch.length < words)
+        {
+            deadlockScratch = new long[words];
+        }
+        return deadlockScratch;
+    }
+
+    /**
+     *
+     * @return Stack for flood fills, large enough to hold every cell once
+     */
+    int[] stack(int cells)
+    {
+        if (stack == null || stack.length < cells)
+        {
+            stack = new int[cells];
+        }
+        return stack;
+    }
+
+    /**
+     *
+     * @return Cleared bitset for the player region of the state being expanded
+     */
+    long[] reachScratch(int words)
+    {
+        reachScratch = cleared(reachScratch, words);
+        return reachScratch;
+    }
+
+    /**
+     *
+     * @return Cleared bitset for the player region of a new state
+     */
+    long[] regionScratch(int words)
+    {
+        regionScratch = cleared(regionScratch, words);
+        return regionScratch;
+    }
+
+    private static long[] cleared(long[] bits, int words)
+    {
+        if (bits == null || bits.length != words)
+        {
+            return new long[words];
+        }
+        Arrays.fill(bits, 0);
+        return bits;
+    }
+
+    /**
+     *
+     * @return A copy of the boxes in a reused bitset, to try out a move before allocating a state
+     */
+    long[] boxScratch(long[] boxes)
+    {
+        if (boxScratch == null || boxScratch.length != boxes.length)
+        {
+            boxScratch = new long[boxes.length];
+        }
+        System.arraycopy(boxes, 0, boxScratch, 0, boxes.length);
+        return boxScratch;
+    }
+
+    private static final ConcurrentLinkedQueue<SolverContext> POOL = new ConcurrentLinkedQueue<SolverContext>();
+
+    // Set from other threads, see cancel
+    private volatile boolean cancelled;
+    private Limits limits = Limits.NONE;
+
+    private final int historyCapacity;
+    private final TranspositionTable.Policy historyPolicy;
+    private final int boundedCapacity;
+
+    // Keys of all (box configuration, player region) pairs which have been observed
+    TranspositionTable history;
+    // Used instead of history while the context searches one of several start positions at once
+    private SharedHistory shared;
+    private int sharedSearch;
+    // The same for the forward half of a bidirectional search
+    TranspositionTable forwardHistory;
+    private final NodePool ownNodes = new NodePool();
+    private NodePool nodes = ownNodes;
+    private TranspositionTable boundedTable;
+    private VisitedNodes visitedNodes;
+    private long[] deadlockScratch;
+    private long[] boxScratch;
+    private long[] reachScratch;
+    private long[] regionScratch;
+    private int[] stack;
+    private final LowerBound lowerBound = new LowerBound();
+}
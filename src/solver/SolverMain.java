@@ -7,7 +7,8 @@ import java.util.ArrayList;
 
 public class SolverMain {
 
-    public static final boolean DEBUG = false;
+    // Run with -Dsolver.debug=true to print the maps and why searches failed
+    public static final boolean DEBUG = Boolean.getBoolean("solver.debug");
 
     public static ArrayList<String> loadBoard(String filename) throws IOException {
         ArrayList<String> board = new ArrayList<String>();
@@ -32,18 +33,96 @@ public class SolverMain {
         return board;
     }
 
+    /**
+     * Solves the puzzle with a context from the pool, so it is safe to call from several threads at once
+     */
     public static Iterable<Direction> solvePuzzle(String filename) throws IOException, Exception {
         ArrayList<String> board = loadBoard(filename);
 
+        SolverContext context = SolverContext.acquire();
+        try {
+            return solvePuzzle(context, board);
+        } finally {
+            context.release();
+        }
+    }
+
+    public static Iterable<Direction> solvePuzzle(SolverContext context, ArrayList<String> board) throws Exception {
+        return solvePuzzle(context, board, Solver.Engine.BEST_FIRST);
+    }
+
+    public static Iterable<Direction> solvePuzzle(SolverContext context, ArrayList<String> board, Solver.Engine engine) throws Exception {
+        return solvePuzzle(context, board, engine, Budget.UNLIMITED, new CancellationToken()).path;
+    }
+
+    /**
+     * Solves the puzzle within the budget with a context from the pool
+     */
+    public static SolveResult solvePuzzle(String filename, Budget budget, CancellationToken token) throws IOException, Exception {
+        ArrayList<String> board = loadBoard(filename);
+
+        SolverContext context = SolverContext.acquire();
+        try {
+            return solvePuzzle(context, board, Solver.Engine.BEST_FIRST, budget, token);
+        } finally {
+            context.release();
+        }
+    }
+
+    public static SolveResult solvePuzzle(SolverContext context, ArrayList<String> board, Solver.Engine engine,
+            Budget budget, CancellationToken token) throws Exception {
+        return solve(context, Board.fromLines(board), engine, budget, token);
+    }
+
+    /**
+     * Solves a level in the generator's tile codes (see Board.fromGrid) without going through a file
+     */
+    public static SolveResult solve(int[][] grid) throws Exception {
+        return solve(Board.fromGrid(grid));
+    }
+
+    public static SolveResult solve(Board board) throws Exception {
+        return solve(board, Budget.UNLIMITED, new CancellationToken());
+    }
+
+    public static SolveResult solve(int[][] grid, Budget budget, CancellationToken token) throws Exception {
+        return solve(Board.fromGrid(grid), budget, token);
+    }
+
+    public static SolveResult solve(int[][] grid, Solver.Engine engine, Budget budget, CancellationToken token) throws Exception {
+        return solve(Board.fromGrid(grid), engine, budget, token);
+    }
+
+    public static SolveResult solve(Board board, Budget budget, CancellationToken token) throws Exception {
+        return solve(board, Solver.Engine.BEST_FIRST, budget, token);
+    }
+
+    /**
+     * Solves the level within the budget with a context from the pool
+     */
+    public static SolveResult solve(Board board, Solver.Engine engine, Budget budget, CancellationToken token) throws Exception {
+        SolverContext context = SolverContext.acquire();
+        try {
+            return solve(context, board, engine, budget, token);
+        } finally {
+            context.release();
+        }
+    }
+
+    public static SolveResult solve(SolverContext context, Board board, Solver.Engine engine,
+            Budget budget, CancellationToken token) throws Exception {
         Map map = new Map(board);
         Map invertMap = Map.inverted(map);
         if (DEBUG) {
             System.err.println(map.toString());
         }
-        State initialState = new State(invertMap, map.inverseMap, board);
-        
-        Iterable<Direction> path = Solver.solve(initialState);
-        return path;
+        State initialState = new State(context, invertMap, board);
+
+        SolveResult result = Solver.solve(context, initialState, engine, Solver.Winner.LOWEST_INDEX, budget, token);
+        if (DEBUG) {
+            System.err.println(result.outcome + " " + result.stats);
+        }
+        return result;
     }
 
     public static void main(String[] args) throws IOException, Exception {
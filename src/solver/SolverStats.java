@@ -0,0 +1,212 @@
+package solver;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a solve cost: how many states it expanded, generated and threw away, how large its open list
+ * and duplicate tables got, and where the time went. Every thread working on the solve counts into
+ * the same stats, which are complete once the solve has returned them in its SolveResult.
+ */
+public final class SolverStats {
+
+    SolverStats()
+    {
+        this.start = System.nanoTime();
+    }
+
+    /**
+     *
+     * @return States whose successors were generated
+     */
+    public long getExpanded()
+    {
+        return expanded;
+    }
+
+    /**
+     *
+     * @return Successors that survived the dead square, deadlock and lower bound checks
+     */
+    public long getGenerated()
+    {
+        return generated.sum();
+    }
+
+    /**
+     *
+     * @return Legal box moves thrown away because they lead onto a dead square or into a deadlock
+     */
+    public long getDeadlockPruned()
+    {
+        return deadlockPruned.sum();
+    }
+
+    /**
+     *
+     * @return Generated states that were already in a duplicate table
+     */
+    public long getDuplicates()
+    {
+        return duplicates.sum();
+    }
+
+    /**
+     *
+     * @return Largest number of states waiting to be expanded at once
+     */
+    public long getPeakOpen()
+    {
+        return peakOpen.get();
+    }
+
+    /**
+     *
+     * @return Largest number of entries in the duplicate tables
+     */
+    public long getPeakHistory()
+    {
+        return peakHistory.get();
+    }
+
+    /**
+     *
+     * @return Rough estimate of the heap the search held at its peak: open states, duplicate table entries and tree nodes
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     *
+     * @return Time spent flooding player regions, for moves and for duplicate keys
+     */
+    public double getReachMillis()
+    {
+        return reachNanos.sum() / 1e6;
+    }
+
+    /**
+     *
+     * @return Time spent trying box moves, checking them for deadlocks and bounding them
+     */
+    public double getGenerateMillis()
+    {
+        return generateNanos.sum() / 1e6;
+    }
+
+    /**
+     *
+     * @return Time spent rebuilding the moves of the solution
+     */
+    public double getPathMillis()
+    {
+        return pathNanos.sum() / 1e6;
+    }
+
+    public double getTotalMillis()
+    {
+        return totalNanos / 1e6;
+    }
+
+    public String toString()
+    {
+        return String.format(Locale.ROOT,
+                "expanded %d, generated %d, deadlocks %d, duplicates %d, peak open %d, peak history %d, ~%d bytes, "
+                        + "reach %.1f ms, generate %.1f ms, path %.1f ms, total %.1f ms",
+                getExpanded(), getGenerated(), getDeadlockPruned(), getDuplicates(), getPeakOpen(), getPeakHistory(),
+                getBytes(), getReachMillis(), getGenerateMillis(), getPathMillis(), getTotalMillis());
+    }
+
+    /*
+    Counting, from any thread working on the solve
+     */
+    void generated(int states)
+    {
+        generated.add(states);
+    }
+
+    void deadlockPruned()
+    {
+        deadlockPruned.increment();
+    }
+
+    void duplicate()
+    {
+        duplicates.increment();
+    }
+
+    void duplicates(int states)
+    {
+        duplicates.add(states);
+    }
+
+    void open(long size)
+    {
+        peak(peakOpen, size);
+    }
+
+    void history(long size)
+    {
+        peak(peakHistory, size);
+    }
+
+    void reach(long nanos)
+    {
+        reachNanos.add(nanos);
+    }
+
+    void generate(long nanos)
+    {
+        generateNanos.add(nanos);
+    }
+
+    void path(long nanos)
+    {
+        pathNanos.add(nanos);
+    }
+
+    private static void peak(AtomicLong peak, long size)
+    {
+        /* Most updates are below the peak, read before paying for the update */
+        if (size > peak.get()) {
+            peak.accumulateAndGet(size, Math::max);
+        }
+    }
+
+    /**
+     * Called once when the solve returns
+     * @param expanded Expansions counted by the limits of the solve
+     * @param words Length of the box bitsets of the level
+     */
+    void finish(long expanded, int words)
+    {
+        this.expanded = expanded;
+        this.totalNanos = System.nanoTime() - start;
+        this.bytes = getPeakOpen() * (STATE_BYTES + ARRAY_BYTES + Long.BYTES * words)
+                + getPeakHistory() * HISTORY_ENTRY_BYTES + expanded * NODE_BYTES;
+    }
+
+    // A state object with its fields, and the header of its box bitset
+    private static final long STATE_BYTES = 56;
+    private static final long ARRAY_BYTES = 16;
+    // Key and value of a transposition table slot, at half load
+    private static final long HISTORY_ENTRY_BYTES = 24;
+    // See NodePool
+    private static final long NODE_BYTES = 12;
+
+    private final long start;
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder deadlockPruned = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final AtomicLong peakOpen = new AtomicLong();
+    private final AtomicLong peakHistory = new AtomicLong();
+    private final LongAdder reachNanos = new LongAdder();
+    private final LongAdder generateNanos = new LongAdder();
+    private final LongAdder pathNanos = new LongAdder();
+    private long expanded;
+    private long totalNanos;
+    private long bytes;
+}
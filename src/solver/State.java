@@ -3,139 +3,135 @@
 
 package solver;
 
-import java.util.ArrayList;
-
 public final class State implements Comparable<State>{
 
-    public State(Map map, Position player, ArrayList<Position> boxes, ArrayList<Direction> playerPath, State parent)//More parameters for player and boxes
+    /**
+     *
+     * @param node Node of the parent in the node pool of the search
+     * @param box Cell the box was moved from
+     * @param boxMoves Number of steps the box moved in the direction
+     */
+    public State(State parent, int node, int box, long[] boxes, long boxHash, int player, Direction move, int boxMoves,
+            int lowerBound)
     {
-        this.map = map;
+        this.map = parent.map;
         this.player = player;
         this.boxes = boxes;
-        this.playerPath = playerPath;
-        this.parent = parent;
-        this.goals = parent.goals;
+        this.boxHash = boxHash;
+        this.move = move;
+        this.box = box;
+        this.boxMoves = boxMoves;
+        this.parent = node;
         this.playerEndPos = parent.playerEndPos;
-        cacheHeuristic();
+        this.lowerBound = lowerBound;
     }
 
-    public State(Map map, ArrayList<String> boardinv, ArrayList<String> board) throws Exception
+    /**
+     * The start state of the reverse search
+     * @param map The inverted map of the level
+     * @param board The level, the boxes start on its goals and have to be pulled back to its boxes
+     */
+    public State(SolverContext context, Map map, Board board) throws Exception
     {
         this.map = map;
-        //Read in the initial position of the boxes and the player.
-        this.player = findPlayer(board);
-        this.boxes = findBoxes(board);
-        this.goals = findGoals(board);
-        this.playerEndPos = findPlayerEndPos();
-        this.boxes = findBoxes(boardinv);
-        this.goals = findGoals(boardinv);
-        cacheHeuristic();
-    }
-
-    private Position findPlayer(ArrayList<String> board) throws Exception
-    {
-        for (int y = 0; y < board.size(); ++y)
-        {
-            for (int x = 0; x < board.get(y).length(); ++x)
-            {
-                char c = board.get(y).charAt(x);
-                if (c == '@' || c == '+')
-                    return new Position(x, y);
-            }
+        this.player = board.getPlayer();
+        if (player < 0) {
+            throw new Exception("Could not find the player in the board");
         }
-        throw new Exception("Could not find the player in the board");
+        this.boxes = board.boxes().clone();
+        this.playerEndPos = findPlayerEndPos(context);
+        this.boxes = board.goals().clone();
+        this.boxHash = map.getZobrist().hash(boxes);
+        this.lowerBound = context.lowerBound().solve(map, boxes);
     }
 
-    private ArrayList<Position> findBoxes(ArrayList<String> board)
+    /**
+     * A start state for a forward search, which pushes the boxes onto the goals of the map
+     * and is done once they are all there
+     */
+    public State(SolverContext context, Map map, long[] boxes, int player)
     {
-        ArrayList<Position> boxes = new ArrayList<Position>();
-        for (int y = 0; y < board.size(); ++y)
-        {
-            for (int x = 0; x < board.get(y).length(); ++x)
-            {
-                char c = board.get(y).charAt(x);
-                if (c == '$' || c == '*')
-                    boxes.add(new Position(x, y));
-            }
-        }
-        return boxes;
+        this.map = map;
+        this.player = player;
+        this.boxes = boxes;
+        this.boxHash = map.getZobrist().hash(boxes);
+        this.lowerBound = context.lowerBound().solve(map, boxes);
     }
-    
-    private ArrayList<Position> findGoals(ArrayList<String> board)
+
+    /**
+     * A start state like root but with the player on another cell
+     */
+    public State(State root, int player)
     {
-        ArrayList<Position> goals = new ArrayList<Position>();
-        for (int y = 0; y < board.size(); ++y)
-        {
-            for (int x = 0; x < board.get(y).length(); ++x)
-            {
-                char c = board.get(y).charAt(x);
-                if (c == '.' | c == '*' | c == '+')
-                    goals.add(new Position(x, y));
-            }
-        }
-        return goals;
+        this.map = root.map;
+        this.player = player;
+        this.boxes = root.boxes;
+        this.boxHash = root.boxHash;
+        this.playerEndPos = root.playerEndPos;
+        this.lowerBound = root.lowerBound;
     }
-    
-    private ArrayList<Position> findPlayerEndPos()
+
+    private long[] findPlayerEndPos(SolverContext context)
     {
         Search.Result result;
-        ArrayList<Position> positions = new ArrayList<Position>();
-        for(Position box : this.boxes){
-            result = Search.bfs(this, new IsAtPosition(box.x+1,box.y), this.player.x, this.player.y);
+        long[] positions = new long[boxes.length];
+        int px = map.cellX(player), py = map.cellY(player);
+        for (int cell = nextBox(0); cell >= 0; cell = nextBox(cell + 1)) {
+            int x = map.cellX(cell), y = map.cellY(cell);
+            result = Search.bfs(context, this, new IsAtPosition(x+1,y), px, py);
             if(result != null){
-                positions.add(new Position(box.x+1,box.y));
+                set(positions, map.index(x+1,y));
             }
-            result = Search.bfs(this, new IsAtPosition(box.x-1,box.y), this.player.x, this.player.y);
+            result = Search.bfs(context, this, new IsAtPosition(x-1,y), px, py);
             if(result != null){
-                positions.add(new Position(box.x-1,box.y));
+                set(positions, map.index(x-1,y));
             }
-            result = Search.bfs(this, new IsAtPosition(box.x,box.y+1), this.player.x, this.player.y);
+            result = Search.bfs(context, this, new IsAtPosition(x,y+1), px, py);
             if(result != null){
-                positions.add(new Position(box.x,box.y+1));
+                set(positions, map.index(x,y+1));
             }
-            result = Search.bfs(this, new IsAtPosition(box.x,box.y-1), this.player.x, this.player.y);
+            result = Search.bfs(context, this, new IsAtPosition(x,y-1), px, py);
             if(result != null){
-                positions.add(new Position(box.x,box.y-1));
+                set(positions, map.index(x,y-1));
             }
         }
         return positions;
     }
-    
+
     public boolean isFinal(){
         int numOfBoxOnGoal = boxesOnGoal();
-        return(numOfBoxOnGoal == goals.size() && isAtPossibleEndPosition());
+        return(numOfBoxOnGoal == map.getGoalCount() && (playerEndPos == null || isSet(playerEndPos, player)));
     }
-    
+
     private int boxesOnGoal(){
+        long[] goals = map.getGoals();
         int numOfBoxOnGoal = 0;
-        for (Position boxPos : boxes){
-            if(map.isGoal(boxPos.x, boxPos.y)){
-                numOfBoxOnGoal++;
-            }
+        for (int i = 0; i < boxes.length; i++){
+            numOfBoxOnGoal += Long.bitCount(boxes[i] & goals[i]);
         }
         return numOfBoxOnGoal;
     }
-    
-    private boolean isAtPossibleEndPosition(){
-        for (Position pos : playerEndPos)
-        {
-            if (player.x == pos.x & player.y == pos.y)
-                return true;
-        }
-        return false;
+
+    /**
+     *
+     * @param from Cell index to start looking from
+     * @return The lowest box cell index that is at least from, or -1 if there is none
+     */
+    public int nextBox(int from)
+    {
+        return next(boxes, from);
     }
 
-    
     public int getHeight()
     {
         return this.map.getHeight();
     }
-    
+
     public int getWidth()
     {
         return this.map.getWidth();
     }
-            
+
     /**
      *
      * @param x
@@ -152,13 +148,7 @@ public final class State implements Comparable<State>{
      */
     public boolean isBox(int x, int y)
     {
-        for (int ii = 0; ii < boxes.size(); ++ii)
-        {
-            Position pos = boxes.get(ii);
-            if (x == pos.x & y == pos.y)
-                return true;
-        }
-        return false;
+        return isSet(boxes, map.index(x, y));
     }
     public boolean isEmpty(int x, int y)
     {
@@ -177,7 +167,37 @@ public final class State implements Comparable<State>{
 
     public Position getPlayer()
     {
-        return player;
+        return new Position(map.cellX(player), map.cellY(player));
+    }
+
+    /*
+    Bitset helpers for the long[] cell sets used by boxes, goals and player end positions
+     */
+    public static boolean isSet(long[] bits, int cell)
+    {
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+    public static void set(long[] bits, int cell)
+    {
+        bits[cell >>> 6] |= 1L << cell;
+    }
+    public static void clear(long[] bits, int cell)
+    {
+        bits[cell >>> 6] &= ~(1L << cell);
+    }
+    public static int next(long[] bits, int from)
+    {
+        int i = from >>> 6;
+        if (i >= bits.length)
+            return -1;
+        long word = bits[i] & (-1L << from);
+        while (word == 0)
+        {
+            if (++i == bits.length)
+                return -1;
+            word = bits[i];
+        }
+        return (i << 6) + Long.numberOfTrailingZeros(word);
     }
 
     /**
@@ -190,18 +210,8 @@ public final class State implements Comparable<State>{
         boolean boxBool, playerBool;
         for (int i = 0; i < map.getHeight(); i++) { // For y-coordinates
             for (int j = 0; j < map.getWidth(); j++) { // For x-coordinates
-                // See if there is a box with these exact coordinates
-                boxBool = false;
-                playerBool = false;
-                for (Position box : boxes) {
-                    if (box.x == j & box.y == i) {
-                        boxBool = true;
-                    }
-                }
-                // See if there is a player with these exact coordinates
-                if (player.x == j & player.y == i) {
-                    playerBool = true;
-                }
+                boxBool = isBox(j, i);
+                playerBool = player == map.index(j, i);
                 // Add to the string
                 if (boxBool & map.mapMatrix[i][j] == '.') {
                     stringOut += '*';
@@ -221,49 +231,41 @@ public final class State implements Comparable<State>{
         }
         return stringOut;
     }
-    
-    public int compareTo(State s){
 
-        if(s.heuristic < this.heuristic){
-            return -1;
-        }
-        else if(this.heuristic < s.heuristic){
-            return 1;
-        } else {
-            return 0;
-        }
+    /**
+     * Best first order, the state with the fewest box moves left according to the lower bound comes first
+     */
+    public int compareTo(State s){
+        return Integer.compare(this.lowerBound, s.lowerBound);
     }
 
-    private int heuristic;
-    private void cacheHeuristic(){
-        //Calculate manhattan distance between boxes and the closes goal
-        for(Position box : boxes){
-            int min = 10000;
-            for(Position goal : goals){
-                int distance = Math.abs(goal.x-box.x) + Math.abs(goal.y-box.y);
-                if (distance < min){
-                    min = distance;
-                }
-            }
-            //If the box is on the goal the give a bonus to prefer states with many boxes on goals
-            if (min == 0)
-            {
-                heuristic += 10;
-            }
-            else
-                heuristic -= min;
-        }
-    }
+    /**
+     * Minimum number of box moves left, see LowerBound, or LowerBound.INFEASIBLE if the boxes can never reach the goals
+     */
+    public int lowerBound;
 
     /**
-     * Store boxes and goals in simple list to save memory and allow iteration
-     * This will give slightly more expensive isBox/isGoal lookup but the actual runtime of those methods are small anyway
+     * Boxes and player end positions are bitsets over the cell indices of the map (see Map.index)
+     * and the player is a single cell index, so a state costs a few dozen bytes and isBox is a single bit test.
+     * Goals are shared through the map.
+     * The Zobrist hash of the boxes is kept up to date incrementally, see Search.inHistory.
      */
-    public ArrayList<Position> boxes;
-    public ArrayList<Position> goals;
-    public ArrayList<Position> playerEndPos;
-    public Position player;
+    public long[] boxes;
+    public long boxHash;
+    // Null for a forward search, where the player can end anywhere
+    public long[] playerEndPos;
+    public int player;
     public Map map;
-    public ArrayList<Direction> playerPath;
-    public State parent = null;
+    // Direction of the box move that led here, the player stands next to the box, beyond it after a pull and behind it after a push
+    public Direction move;
+    // Number of steps the box moved in that direction, more than one when it went through a tunnel
+    public int boxMoves = 1;
+    // Cell the box was moved from
+    public int box;
+    // The parent is only kept as a node of the search tree, see NodePool, so expanded states can be collected
+    public int parent = NodePool.NO_PARENT;
+    // Lowest cell of the player region when the expansion that created the state could tell, see Search.normalizedPlayer
+    int region = UNKNOWN_REGION;
+
+    static final int UNKNOWN_REGION = -1;
 }
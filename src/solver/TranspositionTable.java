@@ -0,0 +1,171 @@
+package solver;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing set of 64 bit state keys with an int value per key, used for duplicate
+ * detection during the search. Keys are Zobrist hashes, so the low bits are already
+ * uniformly distributed and are used directly as the slot index.
+ */
+public final class TranspositionTable {
+
+    /**
+     * What to do when the table fills up
+     */
+    public enum Policy {
+        /** Double the capacity, no key is ever lost */
+        GROW,
+        /** Keep the capacity and overwrite an entry near the home slot, bounding memory at the cost of re-expansions */
+        REPLACE
+    }
+
+    public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+    public TranspositionTable(int capacity, Policy policy)
+    {
+        this.policy = policy;
+        allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(capacity - 1) << 1));
+    }
+
+    /**
+     *
+     * @param key State key
+     * @return True if the key was not in the table and has been added
+     */
+    public boolean add(long key)
+    {
+        return put(key, 0) == NOT_FOUND;
+    }
+
+    public boolean contains(long key)
+    {
+        return get(key) != NOT_FOUND;
+    }
+
+    /**
+     *
+     * @return The value stored for the key or NOT_FOUND
+     */
+    public int get(long key)
+    {
+        key = nonEmpty(key);
+        int slot = (int) key & mask;
+        for (int probe = 0; probe <= mask; probe++) {
+            long k = keys[slot];
+            if (k == key) {
+                return values[slot];
+            }
+            if (k == EMPTY || (policy == Policy.REPLACE && probe == MAX_PROBES)) {
+                return NOT_FOUND;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Stores the value for the key
+     * @return The previous value of the key or NOT_FOUND if it was not in the table
+     */
+    public int put(long key, int value)
+    {
+        key = nonEmpty(key);
+        int slot = (int) key & mask;
+        int limit = policy == Policy.REPLACE ? MAX_PROBES : keys.length;
+        for (int probe = 0; probe < limit; probe++) {
+            long k = keys[slot];
+            if (k == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            if (k == EMPTY) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size > threshold) {
+                    full();
+                }
+                return NOT_FOUND;
+            }
+            slot = (slot + 1) & mask;
+        }
+        /* Only a replacing table runs out of probes, a growing one resizes before it fills up.
+           Always replace the home slot, the most recent entries are the most likely to be hit again */
+        slot = (int) key & mask;
+        keys[slot] = key;
+        values[slot] = value;
+        return NOT_FOUND;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int capacity()
+    {
+        return keys.length;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private void full()
+    {
+        if (policy == Policy.GROW) {
+            grow();
+        }
+        else {
+            /* A replacing table never resizes, stop counting towards the threshold */
+            threshold = Integer.MAX_VALUE;
+        }
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(keys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = (int) oldKeys[i] & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        threshold = capacity / 4 * 3;
+        size = 0;
+    }
+
+    /* Zero marks an empty slot, so remap the (unlikely) zero key */
+    private static long nonEmpty(long key)
+    {
+        return key == EMPTY ? ZERO_KEY : key;
+    }
+
+    private static final long EMPTY = 0L;
+    private static final long ZERO_KEY = 0x9E3779B97F4A7C15L;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_PROBES = 16;
+
+    private final Policy policy;
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+}
@@ -26,16 +26,18 @@ public class VisitedNodes
         directions[x][y] = dir;
     }
 
-    static VisitedNodes createArray(int width, int height)
+    /**
+     * Starts a new search, forgetting all visited positions in constant time
+     */
+    void next()
     {
-        if (visitedNodes == null)
-        {
-            visitedNodes = new VisitedNodes(width, height);
-        }
-        visitedNodes.currentToken++;
-        return visitedNodes;
+        currentToken++;
+    }
+
+    boolean fits(int width, int height)
+    {
+        return tokens.length == width && tokens[0].length == height;
     }
-    private static VisitedNodes visitedNodes;
 
     public Direction[][] directions;
     private int tokens[][];
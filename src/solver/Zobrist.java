@@ -0,0 +1,61 @@
+package solver;
+
+import java.util.Random;
+
+/**
+ * Zobrist keys for the cells of a map. A box configuration hashes to the xor of the
+ * box keys of its cells, so moving one box only takes two xors, and the player region
+ * is folded in with the player key of its normalized cell.
+ */
+public final class Zobrist {
+
+    public Zobrist(int cells)
+    {
+        /* Fixed seed so keys, and with them table layouts, are reproducible between runs */
+        Random random = new Random(SEED);
+        boxKeys = new long[cells];
+        playerKeys = new long[cells];
+        for (int i = 0; i < cells; i++) {
+            boxKeys[i] = random.nextLong();
+            playerKeys[i] = random.nextLong();
+        }
+    }
+
+    public long box(int cell)
+    {
+        return boxKeys[cell];
+    }
+
+    public long player(int cell)
+    {
+        return playerKeys[cell];
+    }
+
+    /**
+     *
+     * @param boxes Bitset of box cells
+     * @return The box component of the key, built from scratch
+     */
+    public long hash(long[] boxes)
+    {
+        long hash = 0;
+        for (int cell = State.next(boxes, 0); cell >= 0; cell = State.next(boxes, cell + 1)) {
+            hash ^= boxKeys[cell];
+        }
+        return hash;
+    }
+
+    /**
+     *
+     * @return The box component after moving a single box from one cell to another
+     */
+    public long move(long hash, int from, int to)
+    {
+        return hash ^ boxKeys[from] ^ boxKeys[to];
+    }
+
+    private static final long SEED = 0x5EED5EEDL;
+
+    private final long[] boxKeys;
+    private final long[] playerKeys;
+}